@@ -1,12 +1,38 @@
 package ch.rasc.gitblog;
 
+import java.time.Duration;
+import java.util.List;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
 @ConfigurationProperties(prefix = "app")
 @Component
 public class AppProperties {
 
+	public enum LuceneStorage {
+		/**
+		 * Memory mapped index files, lowest latency when the OS page cache is large
+		 * enough
+		 */
+		MMAP,
+
+		/**
+		 * Index files are read with positional reads, smallest footprint
+		 */
+		NIOFS,
+
+		/**
+		 * Index lives only on the heap and is rebuilt from the posts on startup
+		 */
+		MEMORY
+	}
+
+	public enum LuceneMetadataSource {
+		DOC_VALUES, STORED_FIELDS
+	}
+
 	private String blogTitle;
 
 	private String blogDescription;
@@ -33,6 +59,94 @@ public class AppProperties {
 
 	private String luceneDir;
 
+	private LuceneStorage luceneStorage = LuceneStorage.MMAP;
+
+	/**
+	 * Load all index files into physical memory when they are opened. Only used
+	 * together with {@link LuceneStorage#MMAP}
+	 */
+	private boolean lucenePreload = false;
+
+	/**
+	 * Where the post listings read the metadata of the hits from. Both sources return
+	 * the same metadata.
+	 */
+	private LuceneMetadataSource luceneMetadataSource = LuceneMetadataSource.DOC_VALUES;
+
+	/**
+	 * Number of threads that search the segments of the index in parallel. 0 runs
+	 * every search on the request thread, which is the better choice for small indexes
+	 */
+	private int luceneSearchThreads = 0;
+
+	/**
+	 * Number of related posts listed at the end of each post
+	 */
+	private int relatedPosts = 5;
+
+	/**
+	 * Number of posts that are read and written at the same time. 0 uses one thread
+	 * per available processor
+	 */
+	private int generationParallelism = 0;
+
+	/**
+	 * Number of JavaScript contexts that highlight code with Prism at the same time. 0
+	 * uses one context per available processor
+	 */
+	private int prismPoolSize = 0;
+
+	/**
+	 * Time budget for highlighting one code block. A block that takes longer is left
+	 * unhighlighted
+	 */
+	private Duration prismTimeout = Duration.ofSeconds(5);
+
+	/**
+	 * Prism languages that are loaded into a highlighter context when it is created
+	 */
+	private List<String> prismPreloadLanguages = List.of();
+
+	/**
+	 * Upper bound for the highlighted code blocks stored on disk
+	 */
+	private DataSize prismCacheSize = DataSize.ofMegabytes(64);
+
+	/**
+	 * Upper bound for the highlighted code blocks kept in memory
+	 */
+	private DataSize prismMemoryCacheSize = DataSize.ofMegabytes(8);
+
+	private int indexPageSize = 20;
+
+	/**
+	 * Upper bound for the rendered index pages kept in memory
+	 */
+	private DataSize indexPageCacheSize = DataSize.ofMegabytes(16);
+
+	/**
+	 * Time budget of a full text or code search. A search that takes longer returns the
+	 * hits collected so far
+	 */
+	private Duration searchTimeout = Duration.ofMillis(500);
+
+	private int searchMaxQueryLength = 200;
+
+	/**
+	 * Maximum number of terms and other leaf queries in a parsed search query
+	 */
+	private int searchMaxClauses = 32;
+
+	/**
+	 * Maximum number of wildcard, prefix and fuzzy terms in a search query
+	 */
+	private int searchMaxMultiTermQueries = 4;
+
+	/**
+	 * Number of index terms a wildcard, prefix or fuzzy term is expanded to
+	 */
+	private int searchMaxExpansions = 64;
+
 	private String feedbackFromEmail;
 
 	private String feedbackToEmail;
@@ -111,6 +225,150 @@ public class AppProperties {
 		this.luceneDir = luceneDir;
 	}
 
+	public LuceneStorage getLuceneStorage() {
+		return this.luceneStorage;
+	}
+
+	public void setLuceneStorage(LuceneStorage luceneStorage) {
+		this.luceneStorage = luceneStorage;
+	}
+
+	public boolean isLucenePreload() {
+		return this.lucenePreload;
+	}
+
+	public void setLucenePreload(boolean lucenePreload) {
+		this.lucenePreload = lucenePreload;
+	}
+
+	public LuceneMetadataSource getLuceneMetadataSource() {
+		return this.luceneMetadataSource;
+	}
+
+	public void setLuceneMetadataSource(LuceneMetadataSource luceneMetadataSource) {
+		this.luceneMetadataSource = luceneMetadataSource;
+	}
+
+	public int getLuceneSearchThreads() {
+		return this.luceneSearchThreads;
+	}
+
+	public void setLuceneSearchThreads(int luceneSearchThreads) {
+		this.luceneSearchThreads = luceneSearchThreads;
+	}
+
+	public int getGenerationParallelism() {
+		return this.generationParallelism;
+	}
+
+	public void setGenerationParallelism(int generationParallelism) {
+		this.generationParallelism = generationParallelism;
+	}
+
+	public int getPrismPoolSize() {
+		return this.prismPoolSize;
+	}
+
+	public void setPrismPoolSize(int prismPoolSize) {
+		this.prismPoolSize = prismPoolSize;
+	}
+
+	public Duration getPrismTimeout() {
+		return this.prismTimeout;
+	}
+
+	public void setPrismTimeout(Duration prismTimeout) {
+		this.prismTimeout = prismTimeout;
+	}
+
+	public List<String> getPrismPreloadLanguages() {
+		return this.prismPreloadLanguages;
+	}
+
+	public void setPrismPreloadLanguages(List<String> prismPreloadLanguages) {
+		this.prismPreloadLanguages = prismPreloadLanguages;
+	}
+
+	public DataSize getPrismCacheSize() {
+		return this.prismCacheSize;
+	}
+
+	public void setPrismCacheSize(DataSize prismCacheSize) {
+		this.prismCacheSize = prismCacheSize;
+	}
+
+	public DataSize getPrismMemoryCacheSize() {
+		return this.prismMemoryCacheSize;
+	}
+
+	public void setPrismMemoryCacheSize(DataSize prismMemoryCacheSize) {
+		this.prismMemoryCacheSize = prismMemoryCacheSize;
+	}
+
+	public int getRelatedPosts() {
+		return this.relatedPosts;
+	}
+
+	public void setRelatedPosts(int relatedPosts) {
+		this.relatedPosts = relatedPosts;
+	}
+
+	public int getIndexPageSize() {
+		return this.indexPageSize;
+	}
+
+	public void setIndexPageSize(int indexPageSize) {
+		this.indexPageSize = indexPageSize;
+	}
+
+	public DataSize getIndexPageCacheSize() {
+		return this.indexPageCacheSize;
+	}
+
+	public void setIndexPageCacheSize(DataSize indexPageCacheSize) {
+		this.indexPageCacheSize = indexPageCacheSize;
+	}
+
+	public Duration getSearchTimeout() {
+		return this.searchTimeout;
+	}
+
+	public void setSearchTimeout(Duration searchTimeout) {
+		this.searchTimeout = searchTimeout;
+	}
+
+	public int getSearchMaxQueryLength() {
+		return this.searchMaxQueryLength;
+	}
+
+	public void setSearchMaxQueryLength(int searchMaxQueryLength) {
+		this.searchMaxQueryLength = searchMaxQueryLength;
+	}
+
+	public int getSearchMaxClauses() {
+		return this.searchMaxClauses;
+	}
+
+	public void setSearchMaxClauses(int searchMaxClauses) {
+		this.searchMaxClauses = searchMaxClauses;
+	}
+
+	public int getSearchMaxMultiTermQueries() {
+		return this.searchMaxMultiTermQueries;
+	}
+
+	public void setSearchMaxMultiTermQueries(int searchMaxMultiTermQueries) {
+		this.searchMaxMultiTermQueries = searchMaxMultiTermQueries;
+	}
+
+	public int getSearchMaxExpansions() {
+		return this.searchMaxExpansions;
+	}
+
+	public void setSearchMaxExpansions(int searchMaxExpansions) {
+		this.searchMaxExpansions = searchMaxExpansions;
+	}
+
 	public String getPrismJsWorkdir() {
 		return this.prismJsWorkdir;
 	}
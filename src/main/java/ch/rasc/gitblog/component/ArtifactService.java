@@ -0,0 +1,223 @@
+package ch.rasc.gitblog.component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Deflater;
+
+import org.springframework.stereotype.Component;
+
+import ch.rasc.gitblog.AppProperties;
+import ch.rasc.gitblog.Application;
+import ch.rasc.gitblog.util.MyGZIPOutputStream;
+import ch.rasc.gitblog.util.TeeOutputStream;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Writes the generated files into the work dir together with their gzip and brotli
+ * variants. The web server serves these files while they are generated, so nothing is
+ * written in place. A file is first staged in hidden temporary files next to its
+ * target, the content and the gzip variant in a single pass. A batch of staged files
+ * is then compressed with brotli, one process for many files, and published with
+ * atomic renames.
+ */
+@Component
+public class ArtifactService {
+
+	/**
+	 * Number of files passed to one brotli process
+	 */
+	private static final int BROTLI_BATCH_SIZE = 64;
+
+	/**
+	 * Writes the content of a file into a stream
+	 */
+	@FunctionalInterface
+	public interface ContentWriter {
+		void write(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * A file that is written into temporary files and not yet visible under its
+	 * target path
+	 */
+	public record Artifact(Path target, Path staged) {
+	}
+
+	private final List<String> brotliCmd;
+
+	private final ForkJoinPool compressionPool;
+
+	public ArtifactService(AppProperties appProperties) {
+		String cmd = appProperties.getBrotliCmd();
+		if (cmd != null && !cmd.isBlank()) {
+			this.brotliCmd = List.of(cmd.trim().split("\\s+"));
+		}
+		else {
+			this.brotliCmd = List.of();
+		}
+
+		int parallelism = appProperties.getGenerationParallelism();
+		if (parallelism <= 0) {
+			parallelism = Runtime.getRuntime().availableProcessors();
+		}
+		this.compressionPool = new ForkJoinPool(parallelism);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		this.compressionPool.shutdown();
+	}
+
+	public boolean isBrotliEnabled() {
+		return !this.brotliCmd.isEmpty();
+	}
+
+	/**
+	 * Streams the content into a staged file and its gzip variant at the same time, so
+	 * the content is neither held in memory nor read back for gzip.
+	 */
+	public static Artifact stage(Path target, ContentWriter content) throws IOException {
+		// not Files.createTempFile(), the web server has to be able to read the file
+		Path staged = target.resolveSibling("." + target.getFileName().toString() + "."
+				+ Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+		try {
+			try (OutputStream out = new BufferedOutputStream(
+					Files.newOutputStream(staged, StandardOpenOption.CREATE_NEW,
+							StandardOpenOption.WRITE));
+					MyGZIPOutputStream gzout = new MyGZIPOutputStream(
+							new BufferedOutputStream(
+									Files.newOutputStream(sibling(staged, "gz"))));
+					TeeOutputStream tee = new TeeOutputStream(out, gzout)) {
+				gzout.setLevel(Deflater.BEST_COMPRESSION);
+				content.write(tee);
+			}
+			return new Artifact(target, staged);
+		}
+		catch (IOException | RuntimeException e) {
+			discard(new Artifact(target, staged));
+			throw e;
+		}
+	}
+
+	/**
+	 * Stages the content, unless the target already contains exactly these bytes
+	 * @return the staged file, null if the target is unchanged
+	 */
+	public static Artifact stageIfChanged(Path target, byte[] content)
+			throws IOException {
+		if (Files.exists(target) && Files.size(target) == content.length
+				&& Arrays.equals(Files.readAllBytes(target), content)) {
+			return null;
+		}
+		return stage(target, out -> out.write(content));
+	}
+
+	/**
+	 * Creates the brotli variants of the staged files and moves every file to its
+	 * target. The compressed variants are published before the file itself, so a
+	 * reader never gets a new file next to an outdated variant.
+	 * @return the files that are now visible under their target path, files that could
+	 * not be moved are discarded
+	 */
+	public List<Artifact> publish(List<Artifact> artifacts) {
+		if (artifacts.isEmpty()) {
+			return List.of();
+		}
+
+		int brotliProcesses = 0;
+		if (isBrotliEnabled()) {
+			List<List<Path>> batches = new ArrayList<>();
+			for (int i = 0; i < artifacts.size(); i += BROTLI_BATCH_SIZE) {
+				batches.add(artifacts
+						.subList(i, Math.min(i + BROTLI_BATCH_SIZE, artifacts.size()))
+						.stream().map(Artifact::staged).toList());
+			}
+			brotliProcesses = batches.size();
+			// each process occupies a pool thread while it waits
+			this.compressionPool
+					.submit(() -> batches.parallelStream().forEach(this::brotli)).join();
+		}
+
+		List<Artifact> published = new ArrayList<>(artifacts.size());
+		for (Artifact artifact : artifacts) {
+			try {
+				Path stagedBrotli = sibling(artifact.staged(), "br");
+				Path brotli = sibling(artifact.target(), "br");
+				if (Files.exists(stagedBrotli)) {
+					move(stagedBrotli, brotli);
+				}
+				else {
+					// brotli failed, an old variant must not be served with the new file
+					Files.deleteIfExists(brotli);
+				}
+				move(sibling(artifact.staged(), "gz"), sibling(artifact.target(), "gz"));
+				move(artifact.staged(), artifact.target());
+				published.add(artifact);
+			}
+			catch (IOException e) {
+				Application.logger.error("publish " + artifact.target(), e);
+				discard(artifact);
+			}
+		}
+		Application.logger.info("Published {} files, compressed with {} brotli processes",
+				published.size(), brotliProcesses);
+		return published;
+	}
+
+	/**
+	 * Deletes the temporary files of a staged file
+	 */
+	public static void discard(Artifact artifact) {
+		try {
+			Files.deleteIfExists(sibling(artifact.staged(), "br"));
+			Files.deleteIfExists(sibling(artifact.staged(), "gz"));
+			Files.deleteIfExists(artifact.staged());
+		}
+		catch (IOException e) {
+			Application.logger.error("discard " + artifact.staged(), e);
+		}
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		Files.move(source, target, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static Path sibling(Path file, String extension) {
+		return file.resolveSibling(file.getFileName().toString() + "." + extension);
+	}
+
+	private void brotli(List<Path> files) {
+		List<String> cmds = new ArrayList<>(this.brotliCmd);
+		for (Path file : files) {
+			cmds.add(file.toString());
+		}
+		ProcessBuilder builder = new ProcessBuilder(cmds);
+
+		try {
+			Process process = builder.start();
+			int exitCode = process.waitFor();
+			if (exitCode != 0) {
+				Application.logger.error("brotli exited with code {}", exitCode);
+			}
+		}
+		catch (IOException e) {
+			Application.logger.error("brotli", e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Application.logger.error("brotli interrupted", e);
+		}
+	}
+
+}
@@ -1,7 +1,8 @@
 package ch.rasc.gitblog.component;
 
 import java.io.IOException;
-import java.io.Writer;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -26,20 +27,23 @@ import com.rometools.rome.io.WireFeedOutput;
 
 import ch.rasc.gitblog.AppProperties;
 import ch.rasc.gitblog.Application;
+import ch.rasc.gitblog.component.ArtifactService.Artifact;
 import ch.rasc.gitblog.dto.PostMetadata;
 import ch.rasc.gitblog.feed.AtomNSModule;
 import ch.rasc.gitblog.feed.AtomNSModuleImpl;
 import ch.rasc.gitblog.feed.CustomFeedEntry;
 import ch.rasc.gitblog.feed.CustomSyndEntry;
-import ch.rasc.gitblog.service.FileService;
 
 @Component
 public class FeedService {
 
 	private final AppProperties appProperties;
 
-	public FeedService(AppProperties appProperties) {
+	private final ArtifactService artifactService;
+
+	public FeedService(AppProperties appProperties, ArtifactService artifactService) {
 		this.appProperties = appProperties;
+		this.artifactService = artifactService;
 	}
 
 	public boolean filesExists() {
@@ -49,40 +53,46 @@ public class FeedService {
 	}
 
 	public void writeFeeds(List<PostMetadata> posts) {
-		rss2(posts);
-		atom1(posts);
+		List<Artifact> feedFiles = new ArrayList<>();
+		rss2(posts, feedFiles);
+		atom1(posts, feedFiles);
+		this.artifactService.publish(feedFiles);
 	}
 
-	private void rss2(List<PostMetadata> posts) {
+	private void rss2(List<PostMetadata> posts, List<Artifact> feedFiles) {
 		Path baseDir = Paths.get(this.appProperties.getWorkDir());
 		Path feedFile = baseDir.resolve("feed.rss");
-		try (Writer writer = Files.newBufferedWriter(feedFile)) {
+		try {
+			StringWriter writer = new StringWriter();
 			WireFeedOutput output = new WireFeedOutput();
 			output.output(createWireFeed(posts, "rss_2.0"), writer);
+			Artifact feed = ArtifactService.stageIfChanged(feedFile,
+					writer.toString().getBytes(StandardCharsets.UTF_8));
+			if (feed != null) {
+				feedFiles.add(feed);
+			}
 		}
 		catch (IllegalArgumentException | IOException | FeedException e) {
 			Application.logger.error("write rss feed", e);
 		}
-		if (Files.exists(feedFile)) {
-			FileService.gzip(feedFile);
-			FileService.brotli(this.appProperties.getBrotliCmd(), feedFile);
-		}
 	}
 
-	private void atom1(List<PostMetadata> posts) {
+	private void atom1(List<PostMetadata> posts, List<Artifact> feedFiles) {
 		Path baseDir = Paths.get(this.appProperties.getWorkDir());
 		Path feedFile = baseDir.resolve("feed.atom");
-		try (Writer writer = Files.newBufferedWriter(feedFile)) {
+		try {
+			StringWriter writer = new StringWriter();
 			WireFeedOutput output = new WireFeedOutput();
 			output.output(createWireFeed(posts, "atom_1.0"), writer);
+			Artifact feed = ArtifactService.stageIfChanged(feedFile,
+					writer.toString().getBytes(StandardCharsets.UTF_8));
+			if (feed != null) {
+				feedFiles.add(feed);
+			}
 		}
 		catch (IllegalArgumentException | IOException | FeedException e) {
 			Application.logger.error("write rss feed", e);
 		}
-		if (Files.exists(feedFile)) {
-			FileService.gzip(feedFile);
-			FileService.brotli(this.appProperties.getBrotliCmd(), feedFile);
-		}
 	}
 
 	private WireFeed createWireFeed(List<PostMetadata> posts, String feedType) {
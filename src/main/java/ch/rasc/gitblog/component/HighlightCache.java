@@ -0,0 +1,188 @@
+package ch.rasc.gitblog.component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import ch.rasc.gitblog.Application;
+
+/**
+ * Highlighted code, addressed by a hash of the Prism version, the language and the
+ * code. The entries are kept in memory and in one file per entry, so a rebuild after a
+ * restart does not highlight unchanged code again. When the files exceed the size
+ * limit, the least recently used ones are deleted.
+ */
+class HighlightCache {
+
+	private final Path dir;
+
+	private final String prismVersion;
+
+	private final long maxDiskSize;
+
+	private final AtomicLong diskSize = new AtomicLong();
+
+	private final Cache<String, String> memoryCache;
+
+	HighlightCache(Path dir, String prismVersion, long maxDiskSize, long maxMemorySize) {
+		this.dir = dir;
+		this.prismVersion = prismVersion;
+		this.maxDiskSize = maxDiskSize;
+		this.memoryCache = Caffeine.newBuilder().maximumWeight(maxMemorySize)
+				.weigher((String key, String value) -> 2 * value.length()).build();
+
+		try {
+			Files.createDirectories(dir);
+			for (Entry entry : entries()) {
+				this.diskSize.addAndGet(entry.size());
+			}
+		}
+		catch (IOException e) {
+			Application.logger.error("init highlight cache", e);
+		}
+	}
+
+	String key(String language, String code) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(this.prismVersion.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(language.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(code.getBytes(StandardCharsets.UTF_8));
+			return HexFormat.of().formatHex(digest.digest());
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the highlighted code, null if the code is not in the cache
+	 */
+	String get(String key) {
+		String html = this.memoryCache.getIfPresent(key);
+		if (html != null) {
+			return html;
+		}
+
+		Path file = file(key);
+		try {
+			html = Files.readString(file, StandardCharsets.UTF_8);
+			// the modification time is the last access for the eviction
+			Files.setLastModifiedTime(file,
+					FileTime.fromMillis(System.currentTimeMillis()));
+			this.memoryCache.put(key, html);
+			return html;
+		}
+		catch (NoSuchFileException e) {
+			return null;
+		}
+		catch (IOException e) {
+			Application.logger.error("read highlight cache", e);
+			return null;
+		}
+	}
+
+	void put(String key, String html) {
+		this.memoryCache.put(key, html);
+
+		Path file = file(key);
+		Path tmp = file.resolveSibling(file.getFileName().toString() + "."
+				+ Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+		try {
+			Files.createDirectories(file.getParent());
+			byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+			Files.write(tmp, bytes);
+			Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			if (this.diskSize.addAndGet(bytes.length) > this.maxDiskSize) {
+				evict();
+			}
+		}
+		catch (IOException e) {
+			Application.logger.error("write highlight cache", e);
+			try {
+				Files.deleteIfExists(tmp);
+			}
+			catch (IOException ex) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files until the files use at most 90% of the
+	 * size limit
+	 */
+	private synchronized void evict() {
+		if (this.diskSize.get() <= this.maxDiskSize) {
+			return;
+		}
+		try {
+			List<Entry> entries = entries();
+			entries.sort(Comparator.comparing(Entry::lastAccess));
+			long size = entries.stream().mapToLong(Entry::size).sum();
+			long target = this.maxDiskSize / 10 * 9;
+			int deleted = 0;
+			for (Entry entry : entries) {
+				if (size <= target) {
+					break;
+				}
+				Files.deleteIfExists(entry.file());
+				size -= entry.size();
+				deleted++;
+			}
+			this.diskSize.set(size);
+			Application.logger.info("Evicted {} highlighted code blocks", deleted);
+		}
+		catch (IOException e) {
+			Application.logger.error("evict highlight cache", e);
+		}
+	}
+
+	private record Entry(Path file, long size, FileTime lastAccess) {
+	}
+
+	private List<Entry> entries() throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		try (Stream<Path> files = Files.walk(this.dir)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				if (file.getFileName().toString().endsWith(".html")) {
+					try {
+						entries.add(new Entry(file, Files.size(file),
+								Files.getLastModifiedTime(file)));
+					}
+					catch (NoSuchFileException e) {
+						// deleted in the meantime
+					}
+				}
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Spreads the files over 256 directories
+	 */
+	private Path file(String key) {
+		return this.dir.resolve(key.substring(0, 2)).resolve(key + ".html");
+	}
+
+}
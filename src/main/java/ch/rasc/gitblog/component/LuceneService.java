@@ -1,199 +1,754 @@
 package ch.rasc.gitblog.component;
 
 import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.Facets;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexNotFoundException;
+import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.QueryTimeoutImpl;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.mlt.MoreLikeThis;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopFieldCollectorManager;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
 import ch.rasc.gitblog.AppProperties;
+import ch.rasc.gitblog.AppProperties.LuceneMetadataSource;
+import ch.rasc.gitblog.AppProperties.LuceneStorage;
 import ch.rasc.gitblog.Application;
+import ch.rasc.gitblog.dto.FacetCounts;
 import ch.rasc.gitblog.dto.PostContent;
 import ch.rasc.gitblog.dto.PostMetadata;
+import ch.rasc.gitblog.dto.RenderedMarkdown;
+import ch.rasc.gitblog.dto.SearchPage;
+import ch.rasc.gitblog.dto.Suggestion;
+import ch.rasc.gitblog.dto.TagCount;
+import ch.rasc.gitblog.util.CodeIdentifierAnalyzer;
+import ch.rasc.gitblog.util.SuggestionInputIterator;
+import ch.rasc.gitblog.util.SuggestionInputIterator.Input;
 import jakarta.annotation.PreDestroy;
 
 @Component
 public class LuceneService {
-	private final MarkdownService markdownService;
+	/**
+	 * The index is sorted newest first, so listing queries sorted the same way stop
+	 * collecting as soon as a page is full
+	 */
+	private static final Sort INDEX_SORT = new Sort(
+			new SortField("publishedts", SortField.Type.LONG, true));
 
-	private final Directory directory;
+	private static final Sort NEWEST_PUBLISHED_FIRST = newestFirst("publishedts");
 
-	private final Analyzer analyzer;
+	private static final Sort OLDEST_PUBLISHED_FIRST = oldestFirst("publishedts");
+
+	private static final Sort NEWEST_UPDATED_FIRST = newestFirst("updatedts");
+
+	private static final Sort OLDEST_UPDATED_FIRST = oldestFirst("updatedts");
+
+	/**
+	 * Body text is stored and indexed with offsets, so the highlighter can build
+	 * passages directly from the postings without analyzing the text again
+	 */
+	private static final FieldType BODY_FIELD_TYPE;
+
+	static {
+		BODY_FIELD_TYPE = new FieldType(TextField.TYPE_STORED);
+		BODY_FIELD_TYPE
+				.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+		BODY_FIELD_TYPE.freeze();
+	}
+
+	/**
+	 * Only the first characters of each post are considered for snippets
+	 */
+	private static final int MAX_HIGHLIGHT_LENGTH = 20_000;
+
+	private static final Set<BytesRef> TAG_CONTEXT = Set.of(new BytesRef("tag"));
+
+	private static final Set<BytesRef> TITLE_CONTEXT = Set.of(new BytesRef("title"));
+
+	/**
+	 * Version of the document layout. Increase it whenever a field is added, removed or
+	 * indexed differently. An index written with another version is rebuilt.
+	 */
+	private static final int SCHEMA_VERSION = 5;
+
+	private static final String SCHEMA_VERSION_KEY = "schemaVersion";
+
+	/**
+	 * Full rebuilds alternate between these two sub directories of the lucene dir. The
+	 * name of the active one is stored in the {@link #ACTIVE_SLOT_FILE}.
+	 */
+	private static final List<String> SLOTS = List.of("blue", "green");
+
+	private static final String ACTIVE_SLOT_FILE = "active";
+
+	/**
+	 * Everything that belongs to one index. A rebuild creates a new holder in the other
+	 * slot and replaces the active one in one step.
+	 */
+	private record IndexHolder(String slot, Directory directory, IndexWriter writer,
+			SearcherManager searcherManager) {
+	}
 
 	private final AppProperties appProperties;
 
-	private final Set<Integer> publishedYears = new TreeSet<>();
+	private volatile IndexHolder active;
 
-	public LuceneService(AppProperties appProperties, MarkdownService markdownService)
-			throws IOException {
-		this.markdownService = markdownService;
-		this.analyzer = new StandardAnalyzer();
+	private final Analyzer analyzer;
+
+	private final Analyzer codeQueryAnalyzer;
+
+	private final QueryPolicy queryPolicy;
+
+	private final long searchTimeoutMillis;
+
+	/**
+	 * Searches the segments of an index in parallel, null if every search runs on the
+	 * request thread
+	 */
+	private final ExecutorService searchExecutor;
+
+	private final AnalyzingInfixSuggester suggester;
+
+	private final FacetsConfig facetsConfig;
+
+	private volatile FacetCounts facetCounts = FacetCounts.EMPTY;
+
+	private final AtomicLong generation = new AtomicLong();
+
+	private final boolean docValuesMetadata;
+
+	public LuceneService(AppProperties appProperties) throws IOException {
 		this.appProperties = appProperties;
+		// code blocks are indexed into their own field with identifier aware n-grams
+		this.analyzer = new PerFieldAnalyzerWrapper(new StandardAnalyzer(),
+				Map.of("code", new CodeIdentifierAnalyzer(true)));
+		this.codeQueryAnalyzer = new CodeIdentifierAnalyzer(false);
+		this.queryPolicy = new QueryPolicy(this.analyzer, appProperties);
+		this.searchTimeoutMillis = appProperties.getSearchTimeout().toMillis();
+		if (appProperties.getLuceneSearchThreads() > 0) {
+			this.searchExecutor = Executors
+					.newFixedThreadPool(appProperties.getLuceneSearchThreads());
+		}
+		else {
+			this.searchExecutor = null;
+		}
+		this.facetsConfig = new FacetsConfig();
+		this.facetsConfig.setMultiValued("tags", true);
 
-		Path luceneDir = Paths.get(appProperties.getLuceneDir());
-		Files.createDirectories(luceneDir);
-		this.directory = new NIOFSDirectory(luceneDir);
+		this.docValuesMetadata = appProperties
+				.getLuceneMetadataSource() == LuceneMetadataSource.DOC_VALUES;
 
-		this.publishedYears
-				.addAll(this.getAll().stream().map(post -> post.getPublished().getYear())
-						.distinct().toList());
+		if (appProperties.getLuceneStorage() != LuceneStorage.MEMORY) {
+			deleteUnslottedIndexFiles();
+		}
+		this.active = openIndex(readActiveSlot(), OpenMode.CREATE_OR_APPEND);
+
+		// titles and tags are small enough to keep the suggester always on the heap
+		this.suggester = new AnalyzingInfixSuggester(new ByteBuffersDirectory(),
+				new StandardAnalyzer());
+
+		if (appProperties.getLuceneStorage() != LuceneStorage.MEMORY) {
+			warmUp(!appProperties.isLucenePreload());
+		}
+
+		countFacets();
+		buildSuggester();
 	}
 
-	@PreDestroy
-	public void destroy() {
-		if (this.directory != null) {
+	/**
+	 * Opens the index in the given slot. Each index has one writer for its lifetime,
+	 * searches use near real-time readers from the SearcherManager that are refreshed
+	 * after each commit.
+	 */
+	private IndexHolder openIndex(String slot, OpenMode openMode) throws IOException {
+		Directory directory = openDirectory(slot);
+		IndexWriterConfig config = new IndexWriterConfig(this.analyzer);
+		config.setOpenMode(openMode);
+		config.setIndexSort(INDEX_SORT);
+
+		IndexWriter writer;
+		try {
+			writer = new IndexWriter(directory, config);
+		}
+		catch (IllegalArgumentException e) {
+			// index was written without or with another index sort, start with an empty
+			// index that is rebuilt because its schema version is missing
+			Application.logger.info("Index sort changed, recreating index in slot {}",
+					slot);
+			config = new IndexWriterConfig(this.analyzer);
+			config.setOpenMode(OpenMode.CREATE);
+			config.setIndexSort(INDEX_SORT);
+			writer = new IndexWriter(directory, config);
+		}
+
+		SearcherFactory searcherFactory = new SearcherFactory() {
+			@Override
+			public IndexSearcher newSearcher(IndexReader reader,
+					IndexReader previousReader) {
+				return new IndexSearcher(reader, LuceneService.this.searchExecutor);
+			}
+		};
+		SearcherManager searcherManager = new SearcherManager(writer, searcherFactory);
+		return new IndexHolder(slot, directory, writer, searcherManager);
+	}
+
+	private Directory openDirectory(String slot) throws IOException {
+		if (this.appProperties.getLuceneStorage() == LuceneStorage.MEMORY) {
+			return new ByteBuffersDirectory();
+		}
+
+		Path slotDir = Paths.get(this.appProperties.getLuceneDir()).resolve(slot);
+		Files.createDirectories(slotDir);
+
+		if (this.appProperties.getLuceneStorage() == LuceneStorage.NIOFS) {
+			return new NIOFSDirectory(slotDir);
+		}
+
+		MMapDirectory mmapDirectory = new MMapDirectory(slotDir);
+		if (this.appProperties.isLucenePreload()) {
+			mmapDirectory.setPreload(MMapDirectory.ALL_FILES);
+		}
+		return mmapDirectory;
+	}
+
+	private String readActiveSlot() {
+		if (this.appProperties.getLuceneStorage() != LuceneStorage.MEMORY) {
+			Path file = Paths.get(this.appProperties.getLuceneDir(), ACTIVE_SLOT_FILE);
 			try {
-				this.directory.close();
+				if (Files.exists(file)) {
+					String slot = Files.readString(file).trim();
+					if (SLOTS.contains(slot)) {
+						return slot;
+					}
+				}
 			}
 			catch (IOException e) {
-				Application.logger.error("close lucene directory", e);
+				Application.logger.error("read active index slot", e);
 			}
 		}
+		return SLOTS.get(0);
 	}
 
-	public boolean hasIndex() {
+	private void writeActiveSlot(String slot) {
+		if (this.appProperties.getLuceneStorage() == LuceneStorage.MEMORY) {
+			return;
+		}
+
+		Path luceneDir = Paths.get(this.appProperties.getLuceneDir());
+		Path tmpFile = luceneDir.resolve(ACTIVE_SLOT_FILE + ".tmp");
 		try {
-			Path luceneDir = Paths.get(this.appProperties.getLuceneDir());
-			try (Stream<Path> paths = Files.list(luceneDir)) {
-				return paths.count() > 1;
+			Files.writeString(tmpFile, slot);
+			Files.move(tmpFile, luceneDir.resolve(ACTIVE_SLOT_FILE),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			Application.logger.error("write active index slot", e);
+		}
+	}
+
+	/**
+	 * Older versions wrote the index directly into the lucene dir. These files are
+	 * never read again, the first start rebuilds the index in a slot.
+	 */
+	private void deleteUnslottedIndexFiles() {
+		Path luceneDir = Paths.get(this.appProperties.getLuceneDir());
+		if (!Files.isDirectory(luceneDir)) {
+			return;
+		}
+		try (Stream<Path> files = Files.list(luceneDir)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				String name = file.getFileName().toString();
+				if (Files.isRegularFile(file) && (name.startsWith("segments")
+						|| name.startsWith("_") || name.equals(IndexWriter.WRITE_LOCK_NAME))) {
+					Files.delete(file);
+				}
+			}
+		}
+		catch (IOException e) {
+			Application.logger.error("delete old index files", e);
+		}
+	}
+
+	private static String otherSlot(String slot) {
+		return SLOTS.get(0).equals(slot) ? SLOTS.get(1) : SLOTS.get(0);
+	}
+
+	/**
+	 * Brings the index into the OS page cache and runs the landing page query once,
+	 * so the first searches after a deploy don't have to wait for disk reads.
+	 */
+	private void warmUp(boolean touchFiles) {
+		long start = System.nanoTime();
+		if (touchFiles) {
+			byte[] buffer = new byte[64 * 1024];
+			try {
+				Directory directory = this.active.directory();
+				for (String file : directory.listAll()) {
+					if (file.equals(IndexWriter.WRITE_LOCK_NAME)) {
+						continue;
+					}
+					try (IndexInput input = directory.openInput(file,
+							IOContext.READONCE)) {
+						long remaining = input.length();
+						while (remaining > 0) {
+							int len = (int) Math.min(buffer.length, remaining);
+							input.readBytes(buffer, 0, len);
+							remaining -= len;
+						}
+					}
+				}
+			}
+			catch (IOException e) {
+				Application.logger.error("warm up lucene files", e);
 			}
 		}
+
+		getPostsOfYear(LocalDate.now().getYear(), null, 20);
+		Application.logger.info("Lucene warm up took {} ms",
+				(System.nanoTime() - start) / 1_000_000);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		try {
+			this.suggester.close();
+		}
+		catch (IOException e) {
+			Application.logger.error("close lucene suggester", e);
+		}
+
+		close(this.active);
+
+		this.analyzer.close();
+		this.codeQueryAnalyzer.close();
+
+		if (this.searchExecutor != null) {
+			this.searchExecutor.shutdown();
+		}
+	}
+
+	private static void close(IndexHolder holder) {
+		try {
+			holder.searcherManager().close();
+		}
+		catch (IOException e) {
+			Application.logger.error("close lucene searcher manager", e);
+		}
+
+		try {
+			holder.writer().close();
+		}
+		catch (IOException e) {
+			Application.logger.error("close lucene index writer", e);
+		}
+
+		try {
+			holder.directory().close();
+		}
+		catch (IOException e) {
+			Application.logger.error("close lucene directory", e);
+		}
+	}
+
+	public boolean hasIndex() {
+		try {
+			return DirectoryReader.indexExists(this.active.directory());
+		}
 		catch (IOException e) {
 			Application.logger.error("hasIndex", e);
 		}
 		return false;
 	}
 
-	public void deleteIndex() {
-		this.publishedYears.clear();
-
-		IndexWriterConfig config = new IndexWriterConfig(this.analyzer);
-		try (IndexWriter indexWriter = new IndexWriter(this.directory, config)) {
-			indexWriter.deleteAll();
-			indexWriter.commit();
+	/**
+	 * Returns true if the active index was written with the current
+	 * {@link #SCHEMA_VERSION}.
+	 */
+	public boolean isIndexCurrent() {
+		try {
+			String version = SegmentInfos.readLatestCommit(this.active.directory())
+					.getUserData().get(SCHEMA_VERSION_KEY);
+			return String.valueOf(SCHEMA_VERSION).equals(version);
+		}
+		catch (IndexNotFoundException e) {
+			return false;
 		}
 		catch (IOException e) {
-			Application.logger.error("indexAll", e);
+			Application.logger.error("isIndexCurrent", e);
+		}
+		return false;
+	}
+
+	/**
+	 * Writes all posts into a new index in the inactive slot and switches to it when
+	 * it is complete. Until then all searches run against the previous index. When a
+	 * post can not be written, the new index is discarded and the previous one stays
+	 * active, readers never see an index with missing posts.
+	 */
+	public synchronized void rebuild(List<PostContent> posts) {
+		long start = System.nanoTime();
+		IndexHolder previous = this.active;
+		String slot = otherSlot(previous.slot());
+
+		IndexHolder next = null;
+		try {
+			next = openIndex(slot, OpenMode.CREATE);
+			addDocuments(next.writer(), posts);
+			next.writer().setLiveCommitData(
+					Map.of(SCHEMA_VERSION_KEY, String.valueOf(SCHEMA_VERSION)).entrySet());
+			next.writer().commit();
+			next.searcherManager().maybeRefreshBlocking();
+		}
+		catch (IOException | RuntimeException e) {
+			Application.logger.error("rebuild", e);
+			if (next != null) {
+				close(next);
+			}
+			return;
 		}
+
+		this.active = next;
+		writeActiveSlot(slot);
+		updateDerivedData();
+
+		// searches that still hold a reader of the previous index keep it open until
+		// they release it
+		close(previous);
+
+		Application.logger.info("Rebuilt index in slot {} in {} ms", slot,
+				(System.nanoTime() - start) / 1_000_000);
 	}
 
-	public void delete(Set<String> urls) {
+	public synchronized void delete(Set<String> urls) {
 		if (urls.isEmpty()) {
 			return;
 		}
 
-		IndexWriterConfig config = new IndexWriterConfig(this.analyzer);
-		try (IndexWriter indexWriter = new IndexWriter(this.directory, config)) {
+		try {
 			for (String url : urls) {
 				Term keyTerm = new Term("url", url.replace(".md", ".html"));
-				indexWriter.deleteDocuments(keyTerm);
+				this.active.writer().deleteDocuments(keyTerm);
 			}
-			indexWriter.commit();
+			commit();
 		}
 		catch (IOException e) {
-			Application.logger.error("indexAll", e);
+			Application.logger.error("delete", e);
 		}
 	}
 
-	public void index(List<PostContent> posts) {
+	public synchronized void index(List<PostContent> posts) {
 		if (posts.isEmpty()) {
 			return;
 		}
 
-		IndexWriterConfig config = new IndexWriterConfig(this.analyzer);
-		try (IndexWriter indexWriter = new IndexWriter(this.directory, config)) {
+		try {
+			addDocuments(this.active.writer(), posts);
+			commit();
+		}
+		catch (IOException e) {
+			Application.logger.error("index", e);
+		}
+	}
 
-			for (PostContent post : posts) {
-				if (!post.getMetadata().isDraft()) {
+	private void addDocuments(IndexWriter writer, List<PostContent> posts)
+			throws IOException {
+		for (PostContent post : posts) {
+			if (!post.getMetadata().isDraft()) {
+				PostMetadata metadata = post.getMetadata();
+				RenderedMarkdown rendered = post.getRendered();
+				String text = rendered.getText();
 
-					this.publishedYears.add(post.getMetadata().getPublished().getYear());
+				Document doc = new Document();
+				doc.add(new Field("body", text, BODY_FIELD_TYPE));
+				doc.add(new Field("body", metadata.getTitle(), BODY_FIELD_TYPE));
 
-					PostMetadata metadata = post.getMetadata();
-					String text = this.markdownService.renderText(post.getMarkdown());
+				if (StringUtils.hasText(metadata.getSummary())) {
+					doc.add(new TextField("summary", metadata.getSummary(),
+							Field.Store.YES));
+					doc.add(new Field("body", metadata.getSummary(),
+							BODY_FIELD_TYPE));
+				}
+				String code = rendered.getCode();
+				if (!code.isEmpty()) {
+					doc.add(new TextField("code", code, Field.Store.NO));
+				}
+				// checked by the URLChecker
+				for (String link : rendered.getLinks()) {
+					doc.add(new StoredField("link", link));
+				}
 
-					Document doc = new Document();
-					doc.add(new TextField("body", text, Field.Store.NO));
-					doc.add(new TextField("body", metadata.getTitle(), Field.Store.NO));
+				doc.add(new TextField("title", metadata.getTitle(), Field.Store.YES));
+				doc.add(new StringField("url", metadata.getUrl(), Field.Store.YES));
+				doc.add(new StringField("path", metadata.getMdFile().toString(),
+						Field.Store.YES));
 
-					if (StringUtils.hasText(metadata.getSummary())) {
-						doc.add(new TextField("summary", metadata.getSummary(),
-								Field.Store.YES));
-						doc.add(new TextField("body", metadata.getSummary(),
-								Field.Store.NO));
-					}
-					doc.add(new TextField("title", metadata.getTitle(), Field.Store.YES));
-					doc.add(new StringField("url", metadata.getUrl(), Field.Store.YES));
-					doc.add(new StringField("path", metadata.getMdFile().toString(),
-							Field.Store.YES));
+				// columnar copies of the metadata for the listing queries
+				doc.add(new SortedDocValuesField("url",
+						new BytesRef(metadata.getUrl())));
+				doc.add(new BinaryDocValuesField("path",
+						new BytesRef(metadata.getMdFile().toString())));
+				doc.add(new BinaryDocValuesField("title",
+						new BytesRef(metadata.getTitle())));
+				if (StringUtils.hasText(metadata.getSummary())) {
+					doc.add(new BinaryDocValuesField("summary",
+							new BytesRef(metadata.getSummary())));
+				}
 
-					long publishedEpochSeconds = metadata.getPublished().toEpochSecond();
-					doc.add(new NumericDocValuesField("publishedts",
-							publishedEpochSeconds));
-					doc.add(new StoredField("published", publishedEpochSeconds));
+				// points for range queries, doc values for sorting
+				long publishedEpochSeconds = metadata.getPublished().toEpochSecond();
+				doc.add(new LongPoint("published", publishedEpochSeconds));
+				doc.add(new NumericDocValuesField("publishedts",
+						publishedEpochSeconds));
+				doc.add(new StoredField("published", publishedEpochSeconds));
 
-					doc.add(new NumericDocValuesField("publishedyear",
-							metadata.getPublished().getYear()));
+				doc.add(new SortedSetDocValuesFacetField("publishedyear",
+						String.valueOf(metadata.getPublished().getYear())));
 
-					if (metadata.getUpdated() != null) {
-						doc.add(new StoredField("updated",
-								metadata.getUpdated().toEpochSecond()));
-					}
+				long updatedEpochSeconds = publishedEpochSeconds;
+				if (metadata.getUpdated() != null) {
+					updatedEpochSeconds = metadata.getUpdated().toEpochSecond();
+					doc.add(new LongPoint("updated", updatedEpochSeconds));
+					doc.add(new StoredField("updated", updatedEpochSeconds));
+					doc.add(new NumericDocValuesField("updated", updatedEpochSeconds));
+				}
+				doc.add(new NumericDocValuesField("updatedts", updatedEpochSeconds));
 
-					for (String tag : metadata.getTags()) {
-						doc.add(new StringField("tags", tag, Field.Store.YES));
-					}
+				for (String tag : metadata.getTags()) {
+					doc.add(new StringField("tags", tag, Field.Store.YES));
+					doc.add(new SortedSetDocValuesFacetField("tags", tag));
+				}
+				// sorted set doc values would sort and deduplicate the tags
+				if (!metadata.getTags().isEmpty()) {
+					doc.add(new BinaryDocValuesField("tags", new BytesRef(
+							String.join(PostMetadataReader.TAG_SEPARATOR, metadata.getTags()))));
+				}
 
-					try {
-						Term keyTerm = new Term("url", metadata.getUrl());
-						indexWriter.updateDocument(keyTerm, doc);
-					}
-					catch (IOException e) {
-						Application.logger.error("indexAll", e);
-					}
+				Term keyTerm = new Term("url", metadata.getUrl());
+				writer.updateDocument(keyTerm, this.facetsConfig.build(doc));
+			}
+		}
+	}
+
+	/**
+	 * Commits all pending changes and refreshes the searcher, so that the request
+	 * threads see the new documents without having to open segment files themselves.
+	 */
+	private void commit() throws IOException {
+		IndexHolder holder = this.active;
+		holder.writer().commit();
+		holder.searcherManager().maybeRefreshBlocking();
+		updateDerivedData();
+	}
+
+	/**
+	 * Recomputes everything that is derived from the active index and tells the
+	 * callers that cached data is outdated.
+	 */
+	private void updateDerivedData() {
+		countFacets();
+		buildSuggester();
+		this.generation.incrementAndGet();
+	}
+
+	private List<PostMetadata> loadMetadata(IndexSearcher indexSearcher, int[] docIds)
+			throws IOException {
+		if (this.docValuesMetadata) {
+			return PostMetadataReader.fromDocValues(indexSearcher, docIds);
+		}
+		return PostMetadataReader.fromStoredFields(indexSearcher, docIds);
+	}
+
+	private static int[] docIds(ScoreDoc[] scoreDocs) {
+		int[] docIds = new int[scoreDocs.length];
+		for (int i = 0; i < scoreDocs.length; i++) {
+			docIds[i] = scoreDocs[i].doc;
+		}
+		return docIds;
+	}
+
+	/**
+	 * Rebuilds the infix suggester from the titles and tags of all published posts.
+	 * Suggestion lookups only touch this small index and never the main index.
+	 */
+	private void buildSuggester() {
+		List<Input> inputs = new ArrayList<>();
+		for (TagCount tagCount : this.facetCounts.tags()) {
+			inputs.add(new Input(tagCount.tag(), tagCount.count(), tagCount.tag(), "tag"));
+		}
+		for (PostMetadata post : getAll()) {
+			inputs.add(new Input(post.getTitle(), post.getPublished().toEpochSecond(),
+					post.getUrl(), "title"));
+		}
+
+		try {
+			this.suggester.build(new SuggestionInputIterator(inputs));
+		}
+		catch (IOException e) {
+			Application.logger.error("build suggester", e);
+		}
+	}
+
+	public List<Suggestion> suggest(String input, int max) {
+		List<Suggestion> suggestions = new ArrayList<>();
+		try {
+			for (LookupResult result : this.suggester.lookup(input, TAG_CONTEXT, 3, true,
+					false)) {
+				String tag = result.key.toString();
+				suggestions.add(new Suggestion(tag,
+						"/index.html?tag=" + URLEncoder.encode(tag, StandardCharsets.UTF_8)));
+			}
+			for (LookupResult result : this.suggester.lookup(input, TITLE_CONTEXT,
+					max - suggestions.size(), true, false)) {
+				suggestions.add(new Suggestion(result.key.toString(),
+						"/" + result.payload.utf8ToString()));
+			}
+		}
+		catch (IllegalStateException e) {
+			// suggester not built yet
+		}
+		catch (IOException e) {
+			Application.logger.error("suggest", e);
+		}
+		return suggestions;
+	}
+
+	/**
+	 * Counts the years and tags of all live documents in one pass over the facet doc
+	 * values of the current searcher. Runs after every refresh, so the request threads
+	 * only read the result.
+	 */
+	private void countFacets() {
+		IndexSearcher indexSearcher = null;
+		try {
+			indexSearcher = acquire();
+			Facets facets = new SortedSetDocValuesFacetCounts(
+					new DefaultSortedSetDocValuesReaderState(
+							indexSearcher.getIndexReader(), this.facetsConfig));
+
+			List<Integer> years = new ArrayList<>();
+			FacetResult yearResult = facets.getAllChildren("publishedyear");
+			if (yearResult != null) {
+				for (LabelAndValue lv : yearResult.labelValues) {
+					years.add(Integer.valueOf(lv.label));
 				}
 			}
+			years.sort(Comparator.reverseOrder());
 
-			indexWriter.commit();
+			List<TagCount> tags = new ArrayList<>();
+			FacetResult tagResult = facets.getAllChildren("tags");
+			if (tagResult != null) {
+				for (LabelAndValue lv : tagResult.labelValues) {
+					tags.add(new TagCount(lv.label, lv.value.intValue()));
+				}
+			}
+			tags.sort(Comparator.comparing(TagCount::tag, String.CASE_INSENSITIVE_ORDER));
 
+			this.facetCounts = new FacetCounts(Collections.unmodifiableList(years),
+					Collections.unmodifiableList(tags));
+		}
+		catch (IllegalArgumentException e) {
+			// index does not contain any facet fields yet
+			this.facetCounts = FacetCounts.EMPTY;
 		}
 		catch (IOException e) {
-			Application.logger.error("indexAll", e);
+			Application.logger.error("count facets", e);
+		}
+		finally {
+			release(indexSearcher);
 		}
+	}
+
+	/**
+	 * Years and tag counts of the index, as of the last commit
+	 */
+	public FacetCounts getFacetCounts() {
+		return this.facetCounts;
+	}
 
+	/**
+	 * Returns a counter that is incremented after every commit. Callers use it to find
+	 * out if data they derived from the index is still up to date.
+	 */
+	public long getGeneration() {
+		return this.generation.get();
 	}
 
 	public List<PostMetadata> getAll() {
@@ -201,49 +756,389 @@ public class LuceneService {
 		return search(query);
 	}
 
-	public List<PostMetadata> getPostsOfYear(int year) {
-		return search(NumericDocValuesField.newSlowExactQuery("publishedyear", year));
+	/**
+	 * Finds for every post the posts with the most similar body text and tags. Returns
+	 * a map from post url to the urls of the related posts, most similar first.
+	 */
+	public Map<String, List<String>> getRelatedPosts(int max) {
+		Map<String, List<String>> related = new HashMap<>();
+		IndexSearcher indexSearcher = null;
+		try {
+			indexSearcher = acquire();
+			int maxDoc = Math.max(1, indexSearcher.getIndexReader().maxDoc());
+			TopDocs allDocs = indexSearcher.search(MatchAllDocsQuery.INSTANCE, maxDoc);
+
+			// the body has no term vectors, MoreLikeThis analyzes the stored text
+			MoreLikeThis mlt = new MoreLikeThis(indexSearcher.getIndexReader());
+			mlt.setAnalyzer(this.analyzer);
+			mlt.setFieldNames(new String[] { "body" });
+			mlt.setMinTermFreq(2);
+			mlt.setMinDocFreq(2);
+			mlt.setMaxDocFreqPct(50);
+			mlt.setMaxQueryTerms(25);
+
+			StoredFields storedFields = indexSearcher.storedFields();
+			Set<String> fieldsToLoad = Set.of("url", "tags");
+			for (ScoreDoc scoreDoc : allDocs.scoreDocs) {
+				Document doc = storedFields.document(scoreDoc.doc, fieldsToLoad);
+				String url = doc.get("url");
+
+				BooleanQuery.Builder builder = new BooleanQuery.Builder();
+				builder.add(mlt.like(scoreDoc.doc), Occur.SHOULD);
+				for (String tag : doc.getValues("tags")) {
+					builder.add(new BoostQuery(new TermQuery(new Term("tags", tag)), 2f),
+							Occur.SHOULD);
+				}
+				builder.add(new TermQuery(new Term("url", url)), Occur.MUST_NOT);
+
+				TopDocs topDocs = indexSearcher.search(builder.build(), max);
+				List<String> relatedUrls = new ArrayList<>(topDocs.scoreDocs.length);
+				for (ScoreDoc hit : topDocs.scoreDocs) {
+					relatedUrls.add(storedFields.document(hit.doc, Set.of("url")).get("url"));
+				}
+				related.put(url, relatedUrls);
+			}
+		}
+		catch (IOException e) {
+			Application.logger.error("getRelatedPosts", e);
+		}
+		finally {
+			release(indexSearcher);
+		}
+		return related;
 	}
 
-	public List<PostMetadata> searchWithTag(String tag) {
+	/**
+	 * Returns a map from post url to the absolute links in the post
+	 */
+	public Map<String, List<String>> getLinks() {
+		Map<String, List<String>> links = new HashMap<>();
+		IndexSearcher indexSearcher = null;
+		try {
+			indexSearcher = acquire();
+			int maxDoc = Math.max(1, indexSearcher.getIndexReader().maxDoc());
+			TopDocs allDocs = indexSearcher.search(MatchAllDocsQuery.INSTANCE, maxDoc);
+			StoredFields storedFields = indexSearcher.storedFields();
+			Set<String> fieldsToLoad = Set.of("url", "link");
+			for (ScoreDoc scoreDoc : allDocs.scoreDocs) {
+				Document doc = storedFields.document(scoreDoc.doc, fieldsToLoad);
+				links.put(doc.get("url"), List.of(doc.getValues("link")));
+			}
+		}
+		catch (IOException e) {
+			Application.logger.error("getLinks", e);
+		}
+		finally {
+			release(indexSearcher);
+		}
+		return links;
+	}
+
+	public SearchPage getPostsOfYear(int year, String cursor, int size) {
+		return getPostsBetween(LocalDate.of(year, 1, 1), LocalDate.of(year, 12, 31),
+				cursor, size);
+	}
+
+	/**
+	 * Returns the posts published between the two dates (UTC, both inclusive). A
+	 * missing date leaves that end of the range open.
+	 */
+	public SearchPage getPostsBetween(LocalDate from, LocalDate to, String cursor,
+			int size) {
+		long lower = Long.MIN_VALUE;
+		if (from != null) {
+			lower = from.atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+		}
+		long upper = Long.MAX_VALUE;
+		// there is no day after LocalDate.MAX
+		if (to != null && to.isBefore(LocalDate.MAX)) {
+			upper = to.plusDays(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond() - 1;
+		}
+		return searchPage(LongPoint.newRangeQuery("published", lower, upper), false,
+				cursor, size, false, false);
+	}
+
+	/**
+	 * Returns the posts that have an updated date, most recently updated first.
+	 */
+	public SearchPage getRecentlyUpdated(String cursor, int size) {
+		return searchPage(
+				LongPoint.newRangeQuery("updated", Long.MIN_VALUE, Long.MAX_VALUE), true,
+				cursor, size, false, false);
+	}
+
+	/**
+	 * Searches the code blocks for identifiers or fragments of identifiers. Every part
+	 * of the input (split on case changes, underscores and digits) must match the
+	 * prefix of an identifier part in the code, which the edge n-grams turn into a
+	 * term lookup.
+	 */
+	public SearchPage searchWithCode(String input, String cursor, int size) {
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		int clauses = 0;
+		try {
+			this.queryPolicy.checkLength(input);
+		}
+		catch (ParseException e) {
+			Application.logger.info("rejected code query '{}': {}", input, e.getMessage());
+			return new SearchPage(Collections.emptyList(), 0, null, null);
+		}
+
+		try (TokenStream stream = this.codeQueryAnalyzer.tokenStream("code", input)) {
+			CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+			stream.reset();
+			while (stream.incrementToken()) {
+				String term = termAttribute.toString();
+				// shorter parts are not in the index, the other parts still narrow
+				// the search, e.g. getX finds the code with identifiers starting with get
+				if (term.length() < CodeIdentifierAnalyzer.MIN_GRAM) {
+					continue;
+				}
+				if (term.length() > CodeIdentifierAnalyzer.MAX_GRAM) {
+					term = term.substring(0, CodeIdentifierAnalyzer.MAX_GRAM);
+				}
+				builder.add(new TermQuery(new Term("code", term)), Occur.MUST);
+				clauses++;
+			}
+			stream.end();
+		}
+		catch (IOException e) {
+			Application.logger.error("searchWithCode", e);
+		}
+
+		if (clauses == 0) {
+			return new SearchPage(Collections.emptyList(), 0, null, null);
+		}
+
+		Query query = builder.build();
+		try {
+			this.queryPolicy.check(query);
+		}
+		catch (ParseException e) {
+			Application.logger.info("rejected code query '{}': {}", input, e.getMessage());
+			return new SearchPage(Collections.emptyList(), 0, null, null);
+		}
+		return searchPage(query, false, cursor, size, false, true);
+	}
+
+	public SearchPage searchWithTag(String tag, String cursor, int size) {
 		TermQuery query = new TermQuery(new Term("tags", tag));
-		return search(query);
+		return searchPage(query, false, cursor, size, false, false);
 	}
 
-	public List<PostMetadata> searchWithQuery(String query) {
+	public SearchPage searchWithQuery(String query, String cursor, int size) {
 		try {
-			Query q = new QueryParser("body", this.analyzer).parse(query);
-			return search(q);
+			Query q = this.queryPolicy.parse("body", query);
+			return searchPage(q, false, cursor, size, true, true);
 		}
 		catch (ParseException e) {
-			Application.logger.error("search", e);
-			return Collections.emptyList();
+			// user input, no need for a stack trace
+			Application.logger.info("rejected query '{}': {}", query, e.getMessage());
+			return new SearchPage(Collections.emptyList(), 0, null, null);
+		}
+	}
+
+	/**
+	 * Returns one page of posts, newest (published or updated) first. The cursor is the position of the first
+	 * (previous page) or the last (next page) post of the page the user is currently
+	 * on. Only the posts of the requested page are loaded from the index, the total
+	 * number of hits is counted separately. With highlight enabled every post
+	 * of the page gets a snippet of the body text where the query matched. Searches
+	 * with user input are time limited and return the hits collected until the budget
+	 * is used up.
+	 */
+	private SearchPage searchPage(Query query, boolean byUpdated, String cursor,
+			int size, boolean highlight, boolean timeLimited) {
+		boolean backward = decodeCursor(cursor, NEWEST_PUBLISHED_FIRST) != null
+				&& cursor.charAt(0) == 'b';
+
+		IndexSearcher indexSearcher = null;
+		try {
+			indexSearcher = acquire();
+
+			// the timeout is a setting of the searcher, so a time limited search gets its
+			// own searcher on top of the shared reader
+			IndexSearcher searcher = indexSearcher;
+			if (timeLimited) {
+				searcher = new IndexSearcher(indexSearcher.getIndexReader(),
+						this.searchExecutor);
+				searcher.setTimeout(new QueryTimeoutImpl(this.searchTimeoutMillis));
+			}
+
+			// fetch one more hit to find out if there is another page
+			Sort sort;
+			if (byUpdated) {
+				sort = backward ? OLDEST_UPDATED_FIRST : NEWEST_UPDATED_FIRST;
+			}
+			else {
+				sort = backward ? OLDEST_PUBLISHED_FIRST : NEWEST_PUBLISHED_FIRST;
+			}
+			FieldDoc after = decodeCursor(cursor, sort);
+
+			// stop counting when the page is full, with the sort of the index the
+			// remaining segments are skipped entirely
+			TopFieldCollectorManager collectorManager = new TopFieldCollectorManager(sort,
+					size + 1, after, size + 1);
+			TopFieldDocs topDocs = searcher.search(query, collectorManager);
+			if (searcher.timedOut()) {
+				Application.logger.info("search timed out: {}", query);
+			}
+
+			// count() answers most listing queries from index statistics without
+			// visiting the matches
+			long totalHits = topDocs.totalHits.value();
+			if (topDocs.totalHits.relation() != TotalHits.Relation.EQUAL_TO) {
+				totalHits = searcher.count(query);
+			}
+
+			boolean more = topDocs.scoreDocs.length > size;
+			List<FieldDoc> hits = new ArrayList<>();
+			for (int i = 0; i < Math.min(topDocs.scoreDocs.length, size); i++) {
+				hits.add((FieldDoc) topDocs.scoreDocs[i]);
+			}
+			if (backward) {
+				Collections.reverse(hits);
+			}
+
+			List<PostMetadata> posts = new ArrayList<>(loadMetadata(searcher,
+					docIds(hits.toArray(new ScoreDoc[0]))));
+
+			if (highlight && !hits.isEmpty()) {
+				String[] snippets = highlight(searcher, query, hits);
+				for (int i = 0; i < snippets.length; i++) {
+					if (snippets[i] != null) {
+						posts.set(i, posts.get(i).withSnippet(snippets[i]));
+					}
+				}
+			}
+
+			String previousCursor = null;
+			String nextCursor = null;
+			if (!hits.isEmpty()) {
+				if (backward ? more : after != null) {
+					previousCursor = encodeCursor('b', hits.get(0));
+				}
+				if (backward || more) {
+					nextCursor = encodeCursor('a', hits.get(hits.size() - 1));
+				}
+			}
+
+			return new SearchPage(posts, totalHits, previousCursor,
+					nextCursor);
+		}
+		catch (IOException e) {
+			Application.logger.error("search: " + e.getMessage());
+		}
+		finally {
+			release(indexSearcher);
+		}
+		return new SearchPage(Collections.emptyList(), 0, null, null);
+	}
+
+	private String[] highlight(IndexSearcher indexSearcher, Query query,
+			List<FieldDoc> hits) throws IOException {
+		UnifiedHighlighter highlighter = UnifiedHighlighter
+				.builder(indexSearcher, this.analyzer).withMaxLength(MAX_HIGHLIGHT_LENGTH)
+				.withMaxNoHighlightPassages(0)
+				.withFormatter(new DefaultPassageFormatter("<mark>", "</mark>", " … ", true))
+				.build();
+
+		TopDocs topDocs = new TopDocs(
+				new TotalHits(hits.size(), TotalHits.Relation.EQUAL_TO),
+				hits.toArray(new FieldDoc[0]));
+		return highlighter.highlight("body", query, topDocs, 1);
+	}
+
+	/**
+	 * Ties are broken by the doc id in ascending order, which is what the collector
+	 * does anyway. An explicit doc sort field would prevent early termination.
+	 */
+	private static Sort newestFirst(String field) {
+		return new Sort(new SortField(field, SortField.Type.LONG, true));
+	}
+
+	private static Sort oldestFirst(String field) {
+		return new Sort(new SortField(field, SortField.Type.LONG, false),
+				new SortField(null, SortField.Type.DOC, true));
+	}
+
+	private static String encodeCursor(char direction, FieldDoc hit) {
+		return direction + String.valueOf(hit.fields[0]) + "_" + hit.doc;
+	}
+
+	private static FieldDoc decodeCursor(String cursor, Sort sort) {
+		if (cursor == null || cursor.length() < 4
+				|| cursor.charAt(0) != 'a' && cursor.charAt(0) != 'b') {
+			return null;
+		}
+		int separator = cursor.indexOf('_');
+		if (separator == -1) {
+			return null;
+		}
+		try {
+			long publishedts = Long.parseLong(cursor.substring(1, separator));
+			int doc = Integer.parseInt(cursor.substring(separator + 1));
+			if (sort.getSort().length == 1) {
+				return new FieldDoc(doc, Float.NaN, new Object[] { publishedts });
+			}
+			return new FieldDoc(doc, Float.NaN, new Object[] { publishedts, doc });
+		}
+		catch (NumberFormatException e) {
+			return null;
 		}
 	}
 
 	private List<PostMetadata> search(Query query) {
 		List<PostMetadata> posts = new ArrayList<>();
-		try (IndexReader reader = DirectoryReader.open(this.directory)) {
-			IndexSearcher indexSearcher = new IndexSearcher(reader);
+		IndexSearcher indexSearcher = null;
+		try {
+			indexSearcher = acquire();
 
-			TopFieldDocs topDocs = indexSearcher.search(query, 1000,
-					new Sort(new SortField("publishedts", SortField.Type.LONG, true)));
+			int maxDoc = Math.max(1, indexSearcher.getIndexReader().maxDoc());
+			TopFieldDocs topDocs = indexSearcher.search(query, maxDoc,
+					NEWEST_PUBLISHED_FIRST);
 
-			StoredFields storedFields = indexSearcher.storedFields();
-			for (ScoreDoc sd : topDocs.scoreDocs) {
-				int docId = sd.doc;
-				Document doc = storedFields.document(docId);
-				posts.add(new PostMetadata(doc));
-			}
+			posts.addAll(loadMetadata(indexSearcher, docIds(topDocs.scoreDocs)));
 		}
 		catch (IOException e) {
 			Application.logger.error("search: " + e.getMessage());
 		}
+		finally {
+			release(indexSearcher);
+		}
 		return posts;
 	}
 
-	public Set<Integer> getPublishedYears() {
-		return Collections.unmodifiableSet(this.publishedYears);
+	/**
+	 * Acquires a searcher of the active index. A rebuild closes the previous index right
+	 * after it replaced it, so a caller that still read the previous holder tries again
+	 * with the new one.
+	 */
+	private IndexSearcher acquire() throws IOException {
+		while (true) {
+			IndexHolder holder = this.active;
+			try {
+				return holder.searcherManager().acquire();
+			}
+			catch (AlreadyClosedException e) {
+				if (holder == this.active) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	private void release(IndexSearcher indexSearcher) {
+		if (indexSearcher != null) {
+			// release the reader directly instead of going through the manager, the
+			// searcher may belong to an index that was replaced in the meantime
+			try {
+				indexSearcher.getIndexReader().decRef();
+			}
+			catch (IOException e) {
+				Application.logger.error("release searcher", e);
+			}
+		}
 	}
 
 }
@@ -1,9 +1,24 @@
 package ch.rasc.gitblog.component;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import org.nibor.autolink.LinkExtractor;
+import org.nibor.autolink.LinkSpan;
+import org.nibor.autolink.LinkType;
 import org.springframework.stereotype.Component;
 
+import com.vladsch.flexmark.ast.FencedCodeBlock;
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.HtmlBlock;
+import com.vladsch.flexmark.ast.HtmlInline;
+import com.vladsch.flexmark.ast.IndentedCodeBlock;
+import com.vladsch.flexmark.ast.LinkNodeBase;
 import com.vladsch.flexmark.ext.abbreviation.AbbreviationExtension;
 import com.vladsch.flexmark.ext.anchorlink.AnchorLinkExtension;
 import com.vladsch.flexmark.ext.autolink.AutolinkExtension;
@@ -18,8 +33,11 @@ import com.vladsch.flexmark.parser.Parser;
 import com.vladsch.flexmark.util.ast.Node;
 import com.vladsch.flexmark.util.ast.TextCollectingVisitor;
 import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.misc.Extension;
 
+import ch.rasc.gitblog.dto.RenderedMarkdown;
 import ch.rasc.gitblog.util.BlankAnchorLinkExtension;
+import ch.rasc.gitblog.util.PrismHighlightExtension;
 
 @Component
 public class MarkdownService {
@@ -28,28 +46,88 @@ public class MarkdownService {
 
 	private final HtmlRenderer renderer;
 
-	public MarkdownService() {
+	private final LinkExtractor linkExtractor = LinkExtractor.builder()
+			.linkTypes(EnumSet.of(LinkType.URL)).build();
+
+	private final String fingerprint;
+
+	public MarkdownService(PrismJsService prismJsService) {
 		MutableDataSet options = new MutableDataSet();
 
-		options.set(Parser.EXTENSIONS,
-				Arrays.asList(AutolinkExtension.create(), AnchorLinkExtension.create(),
-						TablesExtension.create(), AbbreviationExtension.create(),
-						InsExtension.create(), SuperscriptExtension.create(),
-						EmojiExtension.create(), DefinitionExtension.create(),
-						FootnoteExtension.create(), BlankAnchorLinkExtension.create()));
+		List<Extension> extensions = Arrays.asList(AutolinkExtension.create(),
+				AnchorLinkExtension.create(), TablesExtension.create(),
+				AbbreviationExtension.create(), InsExtension.create(),
+				SuperscriptExtension.create(), EmojiExtension.create(),
+				DefinitionExtension.create(), FootnoteExtension.create(),
+				BlankAnchorLinkExtension.create(),
+				PrismHighlightExtension.create(prismJsService::highlight));
+		options.set(Parser.EXTENSIONS, extensions);
+		this.fingerprint = extensions.stream().map(e -> e.getClass().getName())
+				.collect(Collectors.joining(","));
 
 		this.parser = Parser.builder(options).build();
 		this.renderer = HtmlRenderer.builder(options).build();
 	}
 
-	public String renderHtml(String markdown) {
-		Node document = this.parser.parse(markdown);
-		return this.renderer.render(document);
+	/**
+	 * Identifies the configuration of the parser and the renderer. Changes when an
+	 * extension is added or removed.
+	 */
+	public String getFingerprint() {
+		return this.fingerprint;
 	}
 
-	public String renderText(String markdown) {
+	/**
+	 * Parses the markdown once and collects the plain text, the code blocks, the links
+	 * and the headings. The html is rendered and highlighted from the same document when
+	 * it is needed, until the caller releases the document.
+	 * Code embedded with [github:...] has already been inserted as a fenced block at
+	 * this point.
+	 */
+	public RenderedMarkdown render(String markdown) {
 		Node document = this.parser.parse(markdown);
+
+		StringBuilder code = new StringBuilder();
+		Set<String> links = new LinkedHashSet<>();
+		List<String> headings = new ArrayList<>();
+		for (Node node : document.getDescendants()) {
+			if (node instanceof FencedCodeBlock fenced) {
+				code.append(fenced.getContentChars()).append('\n');
+			}
+			else if (node instanceof IndentedCodeBlock indented) {
+				code.append(indented.getContentChars()).append('\n');
+			}
+			else if (node instanceof Heading heading) {
+				headings.add(heading.getText().toString());
+			}
+			else if (node instanceof LinkNodeBase link) {
+				String url = link.getUrl().toString();
+				if (isAbsolute(url)) {
+					links.add(url);
+				}
+			}
+			else if (node instanceof HtmlBlock || node instanceof HtmlInline) {
+				// href and src attributes of html in the markdown
+				CharSequence html = node.getChars();
+				for (LinkSpan span : this.linkExtractor.extractLinks(html)) {
+					String url = html
+							.subSequence(span.getBeginIndex(), span.getEndIndex())
+							.toString();
+					if (isAbsolute(url)) {
+						links.add(url);
+					}
+				}
+			}
+		}
+
 		TextCollectingVisitor textCollectingVisitor = new TextCollectingVisitor();
-		return textCollectingVisitor.collectAndGetText(document);
+		String text = textCollectingVisitor.collectAndGetText(document);
+		return new RenderedMarkdown(text, code.toString(), List.copyOf(links),
+				headings, () -> this.renderer.render(document));
+	}
+
+	private static boolean isAbsolute(String url) {
+		return url.startsWith("http://") || url.startsWith("https://");
 	}
+
 }
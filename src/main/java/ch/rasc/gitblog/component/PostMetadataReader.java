@@ -0,0 +1,157 @@
+package ch.rasc.gitblog.component;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.IndexSearcher;
+
+import ch.rasc.gitblog.dto.PostMetadata;
+
+/**
+ * Builds {@link PostMetadata} instances for a list of hits, either from the column
+ * oriented doc values or from the stored fields of the documents.
+ */
+class PostMetadataReader {
+
+	/**
+	 * Separates the tags of a post in the tags doc values, which keep the tags in the
+	 * order of the post header like the stored fields
+	 */
+	static final String TAG_SEPARATOR = "\u0000";
+
+	/**
+	 * The stored fields {@link PostMetadata} is built from, the stored body and links
+	 * are not loaded
+	 */
+	private static final Set<String> LISTING_FIELDS = Set.of("url", "path", "title",
+			"summary", "tags", "published", "updated");
+
+	private PostMetadataReader() {
+		// utility class
+	}
+
+	static List<PostMetadata> fromStoredFields(IndexSearcher indexSearcher,
+			int[] docIds) throws IOException {
+		StoredFields storedFields = indexSearcher.storedFields();
+		List<PostMetadata> posts = new ArrayList<>(docIds.length);
+		for (int docId : docIds) {
+			posts.add(new PostMetadata(storedFields.document(docId, LISTING_FIELDS)));
+		}
+		return posts;
+	}
+
+	/**
+	 * Doc values iterators only move forward, so the hits are visited in doc id order
+	 * and the result is put back into the order of the hits.
+	 */
+	static List<PostMetadata> fromDocValues(IndexSearcher indexSearcher, int[] docIds)
+			throws IOException {
+		Integer[] order = new Integer[docIds.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingInt(i -> docIds[i]));
+
+		List<LeafReaderContext> leaves = indexSearcher.getIndexReader().leaves();
+		PostMetadata[] posts = new PostMetadata[docIds.length];
+		StoredFields storedFields = null;
+
+		int currentLeaf = -1;
+		LeafValues values = null;
+		for (int i : order) {
+			int leaf = ReaderUtil.subIndex(docIds[i], leaves);
+			if (leaf != currentLeaf) {
+				values = new LeafValues(leaves.get(leaf).reader());
+				currentLeaf = leaf;
+			}
+			PostMetadata post = values.read(docIds[i] - leaves.get(leaf).docBase);
+			if (post == null) {
+				// document was indexed before the doc values fields existed
+				if (storedFields == null) {
+					storedFields = indexSearcher.storedFields();
+				}
+				post = new PostMetadata(
+						storedFields.document(docIds[i], LISTING_FIELDS));
+			}
+			posts[i] = post;
+		}
+
+		return Arrays.asList(posts);
+	}
+
+	private static class LeafValues {
+		private final SortedDocValues url;
+
+		private final BinaryDocValues path;
+
+		private final BinaryDocValues title;
+
+		private final BinaryDocValues summary;
+
+		private final BinaryDocValues tags;
+
+		private final NumericDocValues published;
+
+		private final NumericDocValues updated;
+
+		LeafValues(LeafReader reader) throws IOException {
+			this.url = DocValues.getSorted(reader, "url");
+			this.path = DocValues.getBinary(reader, "path");
+			this.title = DocValues.getBinary(reader, "title");
+			this.summary = DocValues.getBinary(reader, "summary");
+			this.tags = DocValues.getBinary(reader, "tags");
+			this.published = DocValues.getNumeric(reader, "publishedts");
+			this.updated = DocValues.getNumeric(reader, "updated");
+		}
+
+		PostMetadata read(int doc) throws IOException {
+			if (!this.url.advanceExact(doc) || !this.path.advanceExact(doc)
+					|| !this.title.advanceExact(doc) || !this.published.advanceExact(doc)) {
+				return null;
+			}
+
+			String summaryValue = null;
+			if (this.summary.advanceExact(doc)) {
+				summaryValue = this.summary.binaryValue().utf8ToString();
+			}
+
+			List<String> tagValues = List.of();
+			if (this.tags.advanceExact(doc)) {
+				tagValues = Arrays.asList(this.tags.binaryValue().utf8ToString()
+						.split(TAG_SEPARATOR, -1));
+			}
+
+			ZonedDateTime updatedValue = null;
+			if (this.updated.advanceExact(doc)) {
+				updatedValue = toDateTime(this.updated.longValue());
+			}
+
+			return new PostMetadata(
+					this.url.lookupOrd(this.url.ordValue()).utf8ToString(),
+					Paths.get(this.path.binaryValue().utf8ToString()),
+					this.title.binaryValue().utf8ToString(), summaryValue, tagValues,
+					toDateTime(this.published.longValue()), updatedValue);
+		}
+
+		private static ZonedDateTime toDateTime(long epochSeconds) {
+			return Instant.ofEpochSecond(epochSeconds).atZone(ZoneOffset.UTC);
+		}
+	}
+
+}
@@ -2,31 +2,37 @@ package ch.rasc.gitblog.component;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.util.HashMap;
+import java.time.Duration;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
-
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
 import org.springframework.stereotype.Component;
 
 import ch.rasc.gitblog.AppProperties;
 import ch.rasc.gitblog.Application;
+import jakarta.annotation.PreDestroy;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -36,6 +42,13 @@ import okio.BufferedSource;
 import okio.Okio;
 import okio.Sink;
 
+/**
+ * Highlights code blocks with Prism. The blocks are highlighted in a bounded pool of
+ * isolated JavaScript contexts that share one polyglot engine, so the parsed Prism
+ * sources are shared and every rendering thread can highlight at the same time. Each
+ * context loads a language component and the components it requires only once.
+ * Highlighted blocks are cached, unchanged code is never highlighted twice.
+ */
 @Component
 public class PrismJsService {
 	private final Path prismJsDir;
@@ -43,10 +56,39 @@ public class PrismJsService {
 	private final Path prismComponentsDir;
 	private final Path prismCoreJs;
 
-	private final Set<String> builtin = new HashSet<>();
-	private final Map<String, String> aliases = new HashMap<>();
+	private final PrismLanguages languages;
+
+	private final List<String> preloadLanguages;
+
+	private final Engine engine;
+
+	private final HighlightCache highlightCache;
+
+	private Source prismSource;
+
+	/**
+	 * Parsed once, the sources are cached by the engine and shared by all contexts
+	 */
+	private final Map<String, Optional<Source>> componentSources =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * Contexts that are not in use. A context is only created when no idle one is
+	 * available.
+	 */
+	private final Queue<Highlighter> idleHighlighters = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Limits the number of contexts
+	 */
+	private final Semaphore contextPermits;
+
+	private final Duration timeout;
 
-	private ScriptEngine engine;
+	/**
+	 * Cancels a highlight that runs longer than the timeout
+	 */
+	private final ScheduledExecutorService watchdog;
 
 	public PrismJsService(AppProperties appProperties) {
 		this.prismJsDir = Paths.get(appProperties.getPrismJsWorkdir(),
@@ -56,95 +98,217 @@ public class PrismJsService {
 
 		this.prismCoreJs = this.prismJsDir.resolve("prism.js");
 
-		this.builtin.add("markup");
-		this.builtin.add("xml");
-		this.builtin.add("html");
-		this.builtin.add("mathml");
-		this.builtin.add("svg");
-		this.builtin.add("css");
-		this.builtin.add("clike");
-		this.builtin.add("javascript");
-
-		this.aliases.put("js", "javascript");
-		this.aliases.put("py", "python");
-		this.aliases.put("rb", "ruby");
-		this.aliases.put("ps1", "powershell");
-		this.aliases.put("psm1", "powershell");
-		this.aliases.put("sh", "bash");
-		this.aliases.put("bat", "batch");
-		this.aliases.put("h", "c");
-		this.aliases.put("tex", "latex");
-		this.aliases.put("ts", "typescript");
-		this.aliases.put("kt", "kotlin");
-		this.aliases.put("proto", "protobuf");
-
 		downloadIfNotExists(appProperties.getPrismJsDownloadUrl());
 
+		this.preloadLanguages = appProperties.getPrismPreloadLanguages();
+		this.highlightCache = new HighlightCache(
+				Paths.get(appProperties.getPrismJsWorkdir(), "highlight-cache"),
+				appProperties.getPrismJsVersion(),
+				appProperties.getPrismCacheSize().toBytes(),
+				appProperties.getPrismMemoryCacheSize().toBytes());
+
+		int poolSize = appProperties.getPrismPoolSize();
+		if (poolSize <= 0) {
+			poolSize = Runtime.getRuntime().availableProcessors();
+		}
+		this.contextPermits = new Semaphore(poolSize);
+		this.timeout = appProperties.getPrismTimeout();
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "prism-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		this.engine = Engine.newBuilder().option("engine.WarnInterpreterOnly", "false")
+				.build();
 		try {
-			this.engine = new ScriptEngineManager().getEngineByName("graal.js");
-			try (var fr = Files.newBufferedReader(this.prismCoreJs, StandardCharsets.UTF_8)) {
-				this.engine.eval(fr);
-			}
+			this.prismSource = Source.newBuilder("js", this.prismCoreJs.toFile()).build();
 		}
-		catch (ScriptException | IOException e) {
+		catch (IOException e) {
 			Application.logger.error("set up prismjs", e);
 		}
+		this.languages = new PrismLanguages(this.prismJsDir.resolve("components.json"));
+
+		// the first context with the common languages, later contexts load the same
+		// languages from the cached sources
+		if (this.prismSource != null && !this.preloadLanguages.isEmpty()) {
+			try {
+				this.idleHighlighters.offer(createHighlighter());
+			}
+			catch (PolyglotException e) {
+				Application.logger.error("preload prism languages", e);
+			}
+		}
 	}
 
-	public synchronized String prism(String html) {
-		Document doc = Jsoup.parse(html);
-		Elements codeElements = doc.select("code[class*=\"language-\"]");
-		for (Element codeElement : codeElements) {
-			String lang = "markup";
-			for (String cl : codeElement.classNames()) {
-				if (cl.startsWith("language-")) {
-					lang = cl.substring("language-".length());
-				}
+	@PreDestroy
+	public void destroy() {
+		this.watchdog.shutdownNow();
+		Highlighter highlighter;
+		while ((highlighter = this.idleHighlighters.poll()) != null) {
+			highlighter.context().close(true);
+		}
+		this.engine.close(true);
+	}
+
+	/**
+	 * Highlights the code of a code block. Called by the markdown renderer for every
+	 * fenced code block with a language.
+	 * @return the highlighted code, null if the code could not be highlighted
+	 */
+	public String highlight(String code, String language) {
+		if (this.prismSource == null) {
+			return null;
+		}
+
+		String key = this.highlightCache.key(language, code);
+		String html = this.highlightCache.get(key);
+		if (html == null) {
+			html = highlightInPool(code, language);
+			if (html != null) {
+				this.highlightCache.put(key, html);
 			}
-			codeElement.html(prism(codeElement.wholeText(), lang));
 		}
-		return doc.body().html();
+		return html;
 	}
 
-	private String prism(String code, String language) {
+	/**
+	 * Highlights the code with a context from the pool. Waits when all contexts are
+	 * busy. A context whose highlight timed out or failed is closed and replaced.
+	 */
+	private String highlightInPool(String code, String language) {
+
+		try {
+			this.contextPermits.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+
+		Highlighter highlighter = null;
+		boolean reusable = false;
 		try {
-			String lang = this.aliases.get(language);
-			if (lang == null) {
-				lang = language;
+			highlighter = this.idleHighlighters.poll();
+			if (highlighter == null) {
+				highlighter = createHighlighter();
 			}
 
-			if (!this.builtin.contains(lang)) {
-				Path componentFile = this.prismComponentsDir
-						.resolve("prism-" + lang + ".js");
-				if (Files.exists(componentFile)) {
-					try (var fr = Files.newBufferedReader(componentFile, StandardCharsets.UTF_8)) {
-						this.engine.eval(fr);
-					}
-					this.engine.eval("var lang = Prism.languages." + lang);
-				}
-				else {
-					this.engine.eval("var lang = Prism.languages.markup");
+			Context runningContext = highlighter.context();
+			ScheduledFuture<?> cancel = this.watchdog.schedule(
+					() -> runningContext.close(true), this.timeout.toMillis(),
+					TimeUnit.MILLISECONDS);
+			try {
+				String result = highlight(highlighter, code, language);
+				reusable = true;
+				return result;
+			}
+			finally {
+				// the watchdog already closed the context when the cancel fails
+				if (!cancel.cancel(false)) {
+					reusable = false;
 				}
 			}
+		}
+		catch (PolyglotException e) {
+			if (e.isCancelled()) {
+				Application.logger.error("prism: highlighting {} timed out", language);
+			}
 			else {
-				this.engine.eval("var lang = Prism.languages." + lang);
+				Application.logger.error("prism", e);
+			}
+			return null;
+		}
+		finally {
+			if (highlighter != null) {
+				if (reusable) {
+					this.idleHighlighters.offer(highlighter);
+				}
+				else {
+					highlighter.context().close(true);
+				}
 			}
+			this.contextPermits.release();
+		}
+	}
+
+	/**
+	 * A context with Prism and the languages that are loaded into it
+	 */
+	private record Highlighter(Context context, Value prism, Set<String> loaded) {
+	}
 
-			Invocable invocable = (Invocable) this.engine;
+	private Highlighter createHighlighter() {
+		Context context = Context.newBuilder("js").engine(this.engine).build();
+		try {
+			context.eval(this.prismSource);
+			Value prism = context.getBindings("js").getMember("Prism");
+			// the languages that are bundled into prism.js
+			Set<String> loaded = new HashSet<>(
+					prism.getMember("languages").getMemberKeys());
+			Highlighter highlighter = new Highlighter(context, prism, loaded);
+			for (String language : this.preloadLanguages) {
+				load(highlighter, language);
+			}
+			return highlighter;
+		}
+		catch (PolyglotException e) {
+			context.close(true);
+			throw e;
+		}
+	}
 
-			Object result = invocable.invokeMethod(this.engine.get("Prism"), "highlight",
-					code, this.engine.get("lang"));
-			return (String) result;
+	/**
+	 * Loads the components of a language that are not yet loaded into the context
+	 * @return the language id, null if Prism does not support the language
+	 */
+	private String load(Highlighter highlighter, String language) {
+		String id = this.languages.resolve(language);
+		if (id == null) {
+			id = language;
 		}
-		catch (NoSuchMethodException | ScriptException | IOException e) {
-			Application.logger.error("prism", e);
-			return null;
+		for (String component : this.languages.loadOrder(id)) {
+			if (!highlighter.loaded().contains(component)) {
+				Optional<Source> source = componentSource(component);
+				if (source.isPresent()) {
+					highlighter.context().eval(source.get());
+				}
+				highlighter.loaded().add(component);
+			}
 		}
+		Value grammar = highlighter.prism().getMember("languages").getMember(id);
+		return grammar == null || grammar.isNull() ? null : id;
+	}
+
+	private String highlight(Highlighter highlighter, String code, String language) {
+		String lang = load(highlighter, language);
+		if (lang == null) {
+			lang = "markup";
+		}
+		Value grammar = highlighter.prism().getMember("languages").getMember(lang);
+		return highlighter.prism().invokeMember("highlight", code, grammar, lang)
+				.asString();
+	}
+
+	private Optional<Source> componentSource(String lang) {
+		return this.componentSources.computeIfAbsent(lang, l -> {
+			Path componentFile = this.prismComponentsDir.resolve("prism-" + l + ".js");
+			if (Files.exists(componentFile)) {
+				try {
+					return Optional
+							.of(Source.newBuilder("js", componentFile.toFile()).build());
+				}
+				catch (IOException e) {
+					Application.logger.error("prism", e);
+				}
+			}
+			return Optional.empty();
+		});
 	}
 
 	private void downloadIfNotExists(String downloadURL) {
 		Path parent = this.prismJsDir.getParent();
-		if (!Files.exists(parent)) {
+		if (!Files.exists(this.prismCoreJs)) {
 			try {
 				Files.createDirectories(parent);
 			}
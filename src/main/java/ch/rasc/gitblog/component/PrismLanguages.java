@@ -0,0 +1,100 @@
+package ch.rasc.gitblog.component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.rasc.gitblog.Application;
+
+/**
+ * The languages of the Prism distribution, read from its components.json. Resolves the
+ * aliases Prism declares and the components a language requires.
+ */
+class PrismLanguages {
+
+	/**
+	 * File extensions of code embedded from GitHub that Prism does not declare as an
+	 * alias
+	 */
+	private static final Map<String, String> FILE_EXTENSIONS = Map.of("h", "c", "ps1",
+			"powershell", "psm1", "powershell", "bat", "batch", "proto", "protobuf");
+
+	/**
+	 * Maps every language id and alias to the language id
+	 */
+	private final Map<String, String> ids = new HashMap<>();
+
+	private final Map<String, List<String>> requires = new HashMap<>();
+
+	PrismLanguages(Path componentsJson) {
+		try {
+			JsonNode languages = new ObjectMapper()
+					.readTree(Files.readAllBytes(componentsJson)).path("languages");
+			for (Map.Entry<String, JsonNode> entry : languages.properties()) {
+				String id = entry.getKey();
+				if (!"meta".equals(id)) {
+					this.ids.put(id, id);
+					for (String alias : values(entry.getValue().path("alias"))) {
+						this.ids.put(alias, id);
+					}
+					this.requires.put(id, values(entry.getValue().path("require")));
+				}
+			}
+		}
+		catch (IOException e) {
+			Application.logger.error("read prism components", e);
+		}
+		FILE_EXTENSIONS.forEach(this.ids::putIfAbsent);
+	}
+
+	/**
+	 * @return the language id of a language id or alias, null if the language is unknown
+	 */
+	String resolve(String language) {
+		return this.ids.get(language);
+	}
+
+	/**
+	 * @return the language and all the components it requires, every component after
+	 * the ones it requires
+	 */
+	List<String> loadOrder(String id) {
+		Set<String> order = new LinkedHashSet<>();
+		addWithRequirements(id, order, new LinkedHashSet<>());
+		return new ArrayList<>(order);
+	}
+
+	private void addWithRequirements(String id, Set<String> order, Set<String> visiting) {
+		if (order.contains(id) || !visiting.add(id)) {
+			return;
+		}
+		for (String required : this.requires.getOrDefault(id, List.of())) {
+			addWithRequirements(required, order, visiting);
+		}
+		order.add(id);
+	}
+
+	/**
+	 * The entries in components.json are either a single string or an array
+	 */
+	private static List<String> values(JsonNode node) {
+		List<String> values = new ArrayList<>();
+		if (node.isTextual()) {
+			values.add(node.asText());
+		}
+		else if (node.isArray()) {
+			node.forEach(value -> values.add(value.asText()));
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,106 @@
+package ch.rasc.gitblog.component;
+
+import java.util.function.Supplier;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.RegexpQuery;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+
+import ch.rasc.gitblog.AppProperties;
+
+/**
+ * Parses the search input of the users and rejects queries that are too expensive to
+ * run: inputs that are too long, leading wildcards, regular expressions and queries
+ * with too many clauses. Wildcard, prefix and fuzzy queries are rewritten to the
+ * best matching terms only.
+ */
+class QueryPolicy {
+
+	private final Analyzer analyzer;
+
+	private final int maxQueryLength;
+
+	private final int maxClauses;
+
+	private final int maxMultiTermQueries;
+
+	private final int maxExpansions;
+
+	QueryPolicy(Analyzer analyzer, AppProperties appProperties) {
+		this.analyzer = analyzer;
+		this.maxQueryLength = appProperties.getSearchMaxQueryLength();
+		this.maxClauses = appProperties.getSearchMaxClauses();
+		this.maxMultiTermQueries = appProperties.getSearchMaxMultiTermQueries();
+		this.maxExpansions = appProperties.getSearchMaxExpansions();
+	}
+
+	Query parse(String field, String input) throws ParseException {
+		checkLength(input);
+
+		// QueryParser is not thread safe, a new one is cheap to create
+		QueryParser parser = new QueryParser(field, this.analyzer);
+		parser.setAllowLeadingWildcard(false);
+		parser.setFuzzyPrefixLength(1);
+		parser.setMultiTermRewriteMethod(
+				new MultiTermQuery.TopTermsBlendedFreqScoringRewrite(this.maxExpansions));
+		Query query = parser.parse(input);
+		check(query);
+		return query;
+	}
+
+	void checkLength(String input) throws ParseException {
+		if (input.length() > this.maxQueryLength) {
+			throw new ParseException("query longer than " + this.maxQueryLength);
+		}
+	}
+
+	void check(Query query) throws ParseException {
+		CostVisitor visitor = new CostVisitor();
+		query.visit(visitor);
+		if (visitor.regexp) {
+			throw new ParseException("regular expressions are not supported");
+		}
+		if (visitor.clauses > this.maxClauses) {
+			throw new ParseException("more than " + this.maxClauses + " clauses");
+		}
+		if (visitor.multiTermQueries > this.maxMultiTermQueries) {
+			throw new ParseException(
+					"more than " + this.maxMultiTermQueries + " wildcard or fuzzy terms");
+		}
+	}
+
+	private static class CostVisitor extends QueryVisitor {
+		int clauses;
+
+		int multiTermQueries;
+
+		boolean regexp;
+
+		@Override
+		public void consumeTerms(Query query, Term... terms) {
+			this.clauses += terms.length;
+		}
+
+		@Override
+		public void consumeTermsMatching(Query query, String field,
+				Supplier<ByteRunAutomaton> automaton) {
+			this.clauses++;
+			this.multiTermQueries++;
+			if (query instanceof RegexpQuery) {
+				this.regexp = true;
+			}
+		}
+
+		@Override
+		public void visitLeaf(Query query) {
+			this.clauses++;
+		}
+	}
+
+}
@@ -14,8 +14,8 @@ import com.redfin.sitemapgenerator.WebSitemapGenerator;
 
 import ch.rasc.gitblog.AppProperties;
 import ch.rasc.gitblog.Application;
+import ch.rasc.gitblog.component.ArtifactService.Artifact;
 import ch.rasc.gitblog.dto.PostMetadata;
-import ch.rasc.gitblog.service.FileService;
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.HttpUrl;
@@ -28,8 +28,11 @@ public class SitemapService {
 
 	private final AppProperties appProperties;
 
-	public SitemapService(AppProperties appProperties) {
+	private final ArtifactService artifactService;
+
+	public SitemapService(AppProperties appProperties, ArtifactService artifactService) {
 		this.appProperties = appProperties;
+		this.artifactService = artifactService;
 	}
 
 	public boolean fileExists() {
@@ -51,10 +54,11 @@ public class SitemapService {
 			String result = wsg.writeAsStrings().stream()
 					.collect(Collectors.joining("\n"));
 			Path sitemapPath = workDir.resolve("sitemap.xml");
-			Files.write(sitemapPath, result.getBytes(StandardCharsets.UTF_8));
-
-			FileService.gzip(sitemapPath);
-			FileService.brotli(this.appProperties.getBrotliCmd(), sitemapPath);
+			Artifact sitemap = ArtifactService.stageIfChanged(sitemapPath,
+					result.getBytes(StandardCharsets.UTF_8));
+			if (sitemap != null) {
+				this.artifactService.publish(List.of(sitemap));
+			}
 		}
 		catch (IOException e) {
 			Application.logger.error("writeSitemap", e);
@@ -8,18 +8,15 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
-import org.nibor.autolink.LinkExtractor;
-import org.nibor.autolink.LinkSpan;
-import org.nibor.autolink.LinkType;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Component;
 
@@ -70,7 +67,10 @@ public class URLChecker {
 				.resolve("report/urlcheck.html"));
 	}
 
-	public void checkURLs(List<PostMetadata> posts) {
+	/**
+	 * @param links the absolute links of every post, keyed by post url
+	 */
+	public void checkURLs(List<PostMetadata> posts, Map<String, List<String>> links) {
 		Set<String> ignoreUrls = new HashSet<>();
 		try {
 			Path ignoreUrlsFile = Paths.get(this.appProperties.getIgnoreUrlList());
@@ -82,50 +82,35 @@ public class URLChecker {
 			Application.logger.error("checkURLs read ignore file", e);
 		}
 
-		LinkExtractor linkExtractor = LinkExtractor.builder()
-				.linkTypes(EnumSet.of(LinkType.URL, LinkType.WWW)).build();
-
 		List<URLCheck> results = new ArrayList<>();
 
 		for (PostMetadata post : posts) {
-			try {
-				Path htmlFile = PostMetadata.siblingPath(post.getMdFile(), "html");
-				String htmlContent = Files.readString(htmlFile, StandardCharsets.UTF_8);
-
-				Set<String> urls = new HashSet<>();
-				for (LinkSpan link : linkExtractor.extractLinks(htmlContent)) {
-					urls.add(htmlContent.substring(link.getBeginIndex(),
-							link.getEndIndex()));
-				}
-				if (!urls.isEmpty()) {
-					List<URLCheck> urlChecks = new ArrayList<>(urls.stream()
-							.map(url -> checkUrl(post, url, ignoreUrls))
-							.filter(Objects::nonNull).toList());
-
-					List<URLCheck> url429Checks = urlChecks.stream()
-							.filter(u -> u.status() == 429).toList();
-					if (!url429Checks.isEmpty()) {
-						try {
-							TimeUnit.MINUTES.sleep(5);
-						}
-						catch (InterruptedException e) {
-							Thread.currentThread().interrupt();
-							Application.logger.error("URL retry sleep interrupted", e);
-							return;
-						}
-
-						if (url429Checks.stream()
-								.map(u -> checkUrl(post, u.url(), ignoreUrls))
-								.filter(Objects::nonNull).findAny().isEmpty()) {
-							urlChecks.removeAll(url429Checks);
-						}
+			List<String> urls = links.getOrDefault(post.getUrl(), List.of());
+			if (!urls.isEmpty()) {
+				List<URLCheck> urlChecks = new ArrayList<>(urls.stream()
+						.map(url -> checkUrl(post, url, ignoreUrls))
+						.filter(Objects::nonNull).toList());
+
+				List<URLCheck> url429Checks = urlChecks.stream()
+						.filter(u -> u.status() == 429).toList();
+				if (!url429Checks.isEmpty()) {
+					try {
+						TimeUnit.MINUTES.sleep(5);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						Application.logger.error("URL retry sleep interrupted", e);
+						return;
+					}
 
+					if (url429Checks.stream()
+							.map(u -> checkUrl(post, u.url(), ignoreUrls))
+							.filter(Objects::nonNull).findAny().isEmpty()) {
+						urlChecks.removeAll(url429Checks);
 					}
-					results.addAll(urlChecks);
+
 				}
-			}
-			catch (IOException e) {
-				Application.logger.error("check url", e);
+				results.addAll(urlChecks);
 			}
 		}
 
@@ -0,0 +1,13 @@
+package ch.rasc.gitblog.dto;
+
+import java.util.List;
+
+/**
+ * Publish years in descending order and the number of posts per tag sorted by name,
+ * counted in one pass over the facets of an index snapshot
+ */
+public record FacetCounts(List<Integer> years, List<TagCount> tags) {
+
+	public static final FacetCounts EMPTY = new FacetCounts(List.of(), List.of());
+
+}
@@ -0,0 +1,19 @@
+package ch.rasc.gitblog.dto;
+
+import java.time.LocalDate;
+
+/**
+ * Normalized parameters of an index page request. Empty strings are replaced with
+ * null, so equal requests produce equal instances.
+ */
+public record IndexQuery(String tag, String query, boolean code, Integer year,
+		LocalDate from, LocalDate to, boolean updated, int page, int size,
+		String cursor) {
+
+	public IndexQuery {
+		tag = tag != null && !tag.isBlank() ? tag : null;
+		query = query != null && !query.isBlank() ? query : null;
+		cursor = cursor != null && !cursor.isBlank() ? cursor : null;
+	}
+
+}
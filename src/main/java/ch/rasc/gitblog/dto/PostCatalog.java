@@ -0,0 +1,263 @@
+package ch.rasc.gitblog.dto;
+
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the metadata of all published posts, newest first. The values
+ * are kept in parallel arrays, timestamps as epoch seconds and tags as ids into a
+ * shared dictionary. {@link PostMetadata} objects are only created when a caller
+ * reads a post. The catalog also keeps the list of related posts of every post and the
+ * years and tag counts of the facet count of the same index snapshot.
+ */
+public final class PostCatalog {
+
+	public static final PostCatalog EMPTY = of(List.of(), Map.of(), FacetCounts.EMPTY);
+
+	private static final long NO_UPDATE = Long.MIN_VALUE;
+
+	private final String[] urls;
+
+	private final String[] paths;
+
+	private final String[] titles;
+
+	private final String[] summaries;
+
+	private final long[] published;
+
+	private final long[] updated;
+
+	/**
+	 * The tag ids of post i are postTags[tagOffsets[i]] until
+	 * postTags[tagOffsets[i+1]]
+	 */
+	private final int[] tagOffsets;
+
+	private final int[] postTags;
+
+	private final String[] tagNames;
+
+	private final FacetCounts facetCounts;
+
+	private final Map<String, Integer> urlIndex;
+
+	/**
+	 * The related posts of post i are relatedPosts[relatedOffsets[i]] until
+	 * relatedPosts[relatedOffsets[i+1]]
+	 */
+	private final int[] relatedOffsets;
+
+	private final int[] relatedPosts;
+
+	private PostCatalog(List<PostMetadata> sorted, Map<String, List<String>> related,
+			FacetCounts facetCounts) {
+		int size = sorted.size();
+		this.urls = new String[size];
+		this.paths = new String[size];
+		this.titles = new String[size];
+		this.summaries = new String[size];
+		this.published = new long[size];
+		this.updated = new long[size];
+		this.tagOffsets = new int[size + 1];
+
+		Map<String, Integer> tagIds = new HashMap<>();
+		List<String> tagDictionary = new ArrayList<>();
+		int[] postTagBuffer = new int[size * 4];
+		int postTagCount = 0;
+
+		for (int i = 0; i < size; i++) {
+			PostMetadata post = sorted.get(i);
+			this.urls[i] = post.getUrl();
+			this.paths[i] = post.getMdFile().toString();
+			this.titles[i] = post.getTitle();
+			this.summaries[i] = post.getSummary();
+			this.published[i] = post.getPublished().toEpochSecond();
+			this.updated[i] = post.getUpdated() != null
+					? post.getUpdated().toEpochSecond()
+					: NO_UPDATE;
+
+			this.tagOffsets[i] = postTagCount;
+			if (post.getTags() != null) {
+				for (String tag : post.getTags()) {
+					Integer id = tagIds.get(tag);
+					if (id == null) {
+						id = tagDictionary.size();
+						tagIds.put(tag, id);
+						tagDictionary.add(tag);
+					}
+
+					if (postTagCount == postTagBuffer.length) {
+						postTagBuffer = Arrays.copyOf(postTagBuffer,
+								postTagCount * 2 + 1);
+					}
+					postTagBuffer[postTagCount++] = id;
+				}
+			}
+		}
+		this.tagOffsets[size] = postTagCount;
+
+		this.postTags = Arrays.copyOf(postTagBuffer, postTagCount);
+		this.tagNames = tagDictionary.toArray(new String[0]);
+		this.facetCounts = facetCounts;
+
+		this.urlIndex = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			this.urlIndex.put(this.urls[i], i);
+		}
+
+		this.relatedOffsets = new int[size + 1];
+		List<Integer> relatedList = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			this.relatedOffsets[i] = relatedList.size();
+			for (String relatedUrl : related.getOrDefault(this.urls[i], List.of())) {
+				Integer relatedIndex = this.urlIndex.get(relatedUrl);
+				if (relatedIndex != null) {
+					relatedList.add(relatedIndex);
+				}
+			}
+		}
+		this.relatedOffsets[size] = relatedList.size();
+		this.relatedPosts = relatedList.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * @param related url of a post to the urls of its related posts, most similar
+	 * first
+	 * @param facetCounts years and tag counts of the index the posts were read from
+	 */
+	public static PostCatalog of(Collection<PostMetadata> posts,
+			Map<String, List<String>> related, FacetCounts facetCounts) {
+		List<PostMetadata> sorted = new ArrayList<>(posts);
+		sorted.sort(Comparator.comparing(PostMetadata::getPublished).reversed());
+		return new PostCatalog(sorted, related, facetCounts);
+	}
+
+	public int size() {
+		return this.urls.length;
+	}
+
+	public PostMetadata get(int index) {
+		List<String> tags = new ArrayList<>(
+				this.tagOffsets[index + 1] - this.tagOffsets[index]);
+		for (int i = this.tagOffsets[index]; i < this.tagOffsets[index + 1]; i++) {
+			tags.add(this.tagNames[this.postTags[i]]);
+		}
+
+		ZonedDateTime updatedDateTime = null;
+		if (this.updated[index] != NO_UPDATE) {
+			updatedDateTime = toDateTime(this.updated[index]);
+		}
+
+		return new PostMetadata(this.urls[index], Paths.get(this.paths[index]),
+				this.titles[index], this.summaries[index], tags,
+				toDateTime(this.published[index]), updatedDateTime);
+	}
+
+	/**
+	 * Returns all posts, newest first. The list is a view that creates the
+	 * {@link PostMetadata} objects on access.
+	 */
+	public List<PostMetadata> getPosts() {
+		return view(0, size());
+	}
+
+	/**
+	 * Returns the publish years in descending order
+	 */
+	public List<Integer> getYears() {
+		return this.facetCounts.years();
+	}
+
+	public boolean hasYear(int year) {
+		return this.facetCounts.years().contains(year);
+	}
+
+	/**
+	 * Returns all tags with the number of posts, sorted by name
+	 */
+	public List<TagCount> getTagCounts() {
+		return this.facetCounts.tags();
+	}
+
+	public PostMetadata find(String url) {
+		Integer index = this.urlIndex.get(url);
+		if (index == null) {
+			return null;
+		}
+		return get(index);
+	}
+
+	/**
+	 * Returns the related posts of the post with the given url, most similar first
+	 */
+	public List<PostMetadata> getRelated(String url) {
+		Integer index = this.urlIndex.get(url);
+		if (index == null) {
+			return List.of();
+		}
+		List<PostMetadata> result = new ArrayList<>();
+		int end = this.relatedOffsets[index + 1];
+		for (int i = this.relatedOffsets[index]; i < end; i++) {
+			result.add(get(this.relatedPosts[i]));
+		}
+		return result;
+	}
+
+	public List<String> getRelatedUrls(String url) {
+		Integer index = this.urlIndex.get(url);
+		if (index == null) {
+			return List.of();
+		}
+		List<String> result = new ArrayList<>();
+		int end = this.relatedOffsets[index + 1];
+		for (int i = this.relatedOffsets[index]; i < end; i++) {
+			result.add(this.urls[this.relatedPosts[i]]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the related post urls of all posts, the input format of
+	 * {@link #of(Collection, Map, FacetCounts)}
+	 */
+	public Map<String, List<String>> getRelatedUrls() {
+		Map<String, List<String>> result = new HashMap<>();
+		for (String url : this.urls) {
+			result.put(url, getRelatedUrls(url));
+		}
+		return result;
+	}
+
+	private List<PostMetadata> view(int from, int to) {
+		return new AbstractList<>() {
+			@Override
+			public PostMetadata get(int index) {
+				if (index < 0 || index >= size()) {
+					throw new IndexOutOfBoundsException(index);
+				}
+				return PostCatalog.this.get(from + index);
+			}
+
+			@Override
+			public int size() {
+				return to - from;
+			}
+		};
+	}
+
+	private static ZonedDateTime toDateTime(long epochSeconds) {
+		return Instant.ofEpochSecond(epochSeconds).atZone(ZoneOffset.UTC);
+	}
+
+}
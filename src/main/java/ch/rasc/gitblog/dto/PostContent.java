@@ -5,12 +5,13 @@ public class PostContent {
 
 	private final String markdown;
 
-	private final String html;
+	private final RenderedMarkdown rendered;
 
-	public PostContent(PostMetadata metadata, String markdown, String html) {
+	public PostContent(PostMetadata metadata, String markdown,
+			RenderedMarkdown rendered) {
 		this.metadata = metadata;
 		this.markdown = markdown;
-		this.html = html;
+		this.rendered = rendered;
 	}
 
 	public PostMetadata getMetadata() {
@@ -21,8 +22,15 @@ public class PostContent {
 		return this.markdown;
 	}
 
+	public RenderedMarkdown getRendered() {
+		return this.rendered;
+	}
+
+	/**
+	 * Renders the html from the parsed markdown, see {@link RenderedMarkdown#getHtml()}
+	 */
 	public String getHtml() {
-		return this.html;
+		return this.rendered.getHtml();
 	}
 
 }
@@ -31,6 +31,8 @@ public class PostMetadata {
 
 	private final String summary;
 
+	private final String snippet;
+
 	public PostMetadata(Document doc) {
 		this.draft = false;
 		this.url = doc.get("url");
@@ -51,6 +53,34 @@ public class PostMetadata {
 		else {
 			this.updated = null;
 		}
+		this.snippet = null;
+	}
+
+	public PostMetadata(String url, Path mdFile, String title, String summary,
+			List<String> tags, ZonedDateTime published, ZonedDateTime updated) {
+		this.draft = false;
+		this.url = url;
+		this.mdFile = mdFile;
+		this.feedbackUrl = this.url.replace("/", "-");
+		this.title = title;
+		this.summary = summary;
+		this.tags = tags;
+		this.published = published;
+		this.updated = updated;
+		this.snippet = null;
+	}
+
+	private PostMetadata(PostMetadata source, String snippet) {
+		this.draft = source.draft;
+		this.url = source.url;
+		this.mdFile = source.mdFile;
+		this.feedbackUrl = source.feedbackUrl;
+		this.tags = source.tags;
+		this.summary = source.summary;
+		this.title = source.title;
+		this.published = source.published;
+		this.updated = source.updated;
+		this.snippet = snippet;
 	}
 
 	public PostMetadata(PostHeader header, Path baseDir, Path mdFile) {
@@ -70,6 +100,14 @@ public class PostMetadata {
 		else {
 			this.updated = null;
 		}
+		this.snippet = null;
+	}
+
+	/**
+	 * Returns a copy of this metadata with a highlighted passage of the post body.
+	 */
+	public PostMetadata withSnippet(String highlightedSnippet) {
+		return new PostMetadata(this, highlightedSnippet);
 	}
 
 	public Path getMdFile() {
@@ -108,6 +146,10 @@ public class PostMetadata {
 		return this.summary;
 	}
 
+	public String getSnippet() {
+		return this.snippet;
+	}
+
 	public static Path siblingPath(Path file, String postfix) {
 		String siblingFleName = file.getFileName().toString();
 
@@ -0,0 +1,80 @@
+package ch.rasc.gitblog.dto;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Everything that is derived from the markdown of a post, collected from one parse.
+ * The html is rendered from the document of the same parse when it is needed. The
+ * document is kept until {@link #release()} is called, the html is never kept.
+ */
+public class RenderedMarkdown {
+
+	private final String text;
+
+	private final String code;
+
+	private final List<String> links;
+
+	private final List<String> headings;
+
+	/**
+	 * Renders the parsed document, null after the document was released
+	 */
+	private Supplier<String> htmlRenderer;
+
+	public RenderedMarkdown(String text, String code, List<String> links,
+			List<String> headings, Supplier<String> htmlRenderer) {
+		this.text = text;
+		this.code = code;
+		this.links = links;
+		this.headings = headings;
+		this.htmlRenderer = htmlRenderer;
+	}
+
+	/**
+	 * Plain text without markup, code blocks included
+	 */
+	public String getText() {
+		return this.text;
+	}
+
+	/**
+	 * Content of all fenced and indented code blocks
+	 */
+	public String getCode() {
+		return this.code;
+	}
+
+	/**
+	 * Absolute http and https links and images, including the ones in html tags, in
+	 * document order without duplicates. Urls in code blocks are not links.
+	 */
+	public List<String> getLinks() {
+		return this.links;
+	}
+
+	public List<String> getHeadings() {
+		return this.headings;
+	}
+
+	/**
+	 * Renders the html, every call renders it again
+	 * @throws IllegalStateException if the document was already released
+	 */
+	public synchronized String getHtml() {
+		if (this.htmlRenderer == null) {
+			throw new IllegalStateException("parsed document already released");
+		}
+		return this.htmlRenderer.get();
+	}
+
+	/**
+	 * Drops the parsed document. Called as soon as it is clear that the html is not
+	 * needed anymore.
+	 */
+	public synchronized void release() {
+		this.htmlRenderer = null;
+	}
+
+}
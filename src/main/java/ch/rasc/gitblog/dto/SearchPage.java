@@ -0,0 +1,38 @@
+package ch.rasc.gitblog.dto;
+
+import java.util.List;
+
+public class SearchPage {
+	private final List<PostMetadata> posts;
+
+	private final long totalHits;
+
+	private final String previousCursor;
+
+	private final String nextCursor;
+
+	public SearchPage(List<PostMetadata> posts, long totalHits, String previousCursor,
+			String nextCursor) {
+		this.posts = posts;
+		this.totalHits = totalHits;
+		this.previousCursor = previousCursor;
+		this.nextCursor = nextCursor;
+	}
+
+	public List<PostMetadata> getPosts() {
+		return this.posts;
+	}
+
+	public long getTotalHits() {
+		return this.totalHits;
+	}
+
+	public String getPreviousCursor() {
+		return this.previousCursor;
+	}
+
+	public String getNextCursor() {
+		return this.nextCursor;
+	}
+
+}
@@ -7,13 +7,38 @@ public class SearchResults {
 
 	private final String query;
 
+	private final boolean code;
+
+	private final String listing;
+
 	private final List<YearNavigation> years;
 
-	public SearchResults(List<PostMetadata> posts, String query,
-			List<YearNavigation> years) {
+	private final List<TagCount> tags;
+
+	private final long totalHits;
+
+	private final int page;
+
+	private final int pages;
+
+	private final String previousUrl;
+
+	private final String nextUrl;
+
+	public SearchResults(List<PostMetadata> posts, String query, boolean code,
+			String listing, List<YearNavigation> years, List<TagCount> tags,
+			long totalHits, int page, int pages, String previousUrl, String nextUrl) {
 		this.posts = posts;
 		this.query = query;
+		this.code = code;
+		this.listing = listing;
 		this.years = years;
+		this.tags = tags;
+		this.totalHits = totalHits;
+		this.page = page;
+		this.pages = pages;
+		this.previousUrl = previousUrl;
+		this.nextUrl = nextUrl;
 	}
 
 	public List<PostMetadata> getPosts() {
@@ -24,8 +49,44 @@ public class SearchResults {
 		return this.query;
 	}
 
+	public boolean isCode() {
+		return this.code;
+	}
+
+	public String getListing() {
+		return this.listing;
+	}
+
 	public List<YearNavigation> getYears() {
 		return this.years;
 	}
 
+	public List<TagCount> getTags() {
+		return this.tags;
+	}
+
+	public long getTotalHits() {
+		return this.totalHits;
+	}
+
+	public int getPage() {
+		return this.page;
+	}
+
+	public int getPages() {
+		return this.pages;
+	}
+
+	public boolean isPaged() {
+		return this.pages > 1;
+	}
+
+	public String getPreviousUrl() {
+		return this.previousUrl;
+	}
+
+	public String getNextUrl() {
+		return this.nextUrl;
+	}
+
 }
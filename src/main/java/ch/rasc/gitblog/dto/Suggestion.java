@@ -0,0 +1,3 @@
+package ch.rasc.gitblog.dto;
+
+public record Suggestion(String text, String url) {}
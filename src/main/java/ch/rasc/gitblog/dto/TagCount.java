@@ -0,0 +1,3 @@
+package ch.rasc.gitblog.dto;
+
+public record TagCount(String tag, int count) {}
@@ -0,0 +1,124 @@
+package ch.rasc.gitblog.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.rasc.gitblog.Application;
+
+/**
+ * Remembers for every post the hash of all inputs its html page was generated from,
+ * and the fingerprint of the generator all pages are current with. Stored as a text
+ * file with a "#generator fingerprint" line and one "path hash" line per post.
+ */
+class BuildManifest {
+
+	private static final String GENERATOR_PREFIX = "#generator ";
+
+	private final Path file;
+
+	private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+	private volatile String generator;
+
+	BuildManifest(Path file) {
+		this.file = file;
+
+		if (Files.exists(file)) {
+			try {
+				for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+					if (line.startsWith(GENERATOR_PREFIX)) {
+						this.generator = line.substring(GENERATOR_PREFIX.length());
+						continue;
+					}
+					int separator = line.lastIndexOf(' ');
+					if (separator > 0) {
+						this.hashes.put(line.substring(0, separator),
+								line.substring(separator + 1));
+					}
+				}
+			}
+			catch (IOException e) {
+				Application.logger.error("read build manifest", e);
+			}
+		}
+	}
+
+	boolean matches(String path, String hash) {
+		return hash.equals(this.hashes.get(path));
+	}
+
+	void put(String path, String hash) {
+		this.hashes.put(path, hash);
+	}
+
+	void remove(String path) {
+		this.hashes.remove(path);
+	}
+
+	/**
+	 * @return the generator fingerprint of the last run that generated every page, null
+	 * if there was none
+	 */
+	String getGenerator() {
+		return this.generator;
+	}
+
+	void setGenerator(String generator) {
+		this.generator = generator;
+	}
+
+	/**
+	 * Writes the manifest to a temporary file and moves it over the old one, an
+	 * interrupted write never leaves a truncated manifest behind.
+	 */
+	void save() {
+		List<String> lines = new ArrayList<>(this.hashes.size() + 1);
+		if (this.generator != null) {
+			lines.add(GENERATOR_PREFIX + this.generator);
+		}
+		new TreeMap<>(this.hashes)
+				.forEach((path, hash) -> lines.add(path + " " + hash));
+
+		Path tmpFile = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+		try {
+			Files.createDirectories(this.file.getParent());
+			Files.write(tmpFile, lines, StandardCharsets.UTF_8);
+			Files.move(tmpFile, this.file, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			Application.logger.error("write build manifest", e);
+		}
+	}
+
+	static String hash(List<String> inputs) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String input : inputs) {
+				byte[] bytes = String.valueOf(input).getBytes(StandardCharsets.UTF_8);
+				// length prefix, so that moving text from one input to the next changes
+				// the hash
+				digest.update(
+						Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) ':');
+				digest.update(bytes);
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -2,8 +2,8 @@ package ch.rasc.gitblog.service;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -12,32 +12,37 @@ import java.nio.file.SimpleFileVisitor;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
-import java.util.zip.Deflater;
 
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
 import org.yaml.snakeyaml.Yaml;
 
 import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.MustacheException;
 import com.samskivert.mustache.Template;
 
 import ch.rasc.gitblog.AppProperties;
 import ch.rasc.gitblog.Application;
+import ch.rasc.gitblog.component.ArtifactService;
+import ch.rasc.gitblog.component.ArtifactService.Artifact;
 import ch.rasc.gitblog.component.GitHubCodeService;
 import ch.rasc.gitblog.component.MarkdownService;
-import ch.rasc.gitblog.component.PrismJsService;
 import ch.rasc.gitblog.dto.PostContent;
 import ch.rasc.gitblog.dto.PostHeader;
 import ch.rasc.gitblog.dto.PostMetadata;
 import ch.rasc.gitblog.util.MarkdownFileCollector;
-import ch.rasc.gitblog.util.MyGZIPOutputStream;
+import jakarta.annotation.PreDestroy;
 
 @Service
 public class FileService {
@@ -48,33 +53,55 @@ public class FileService {
 
 	private final GitHubCodeService gitHubCodeService;
 
-	private final Yaml yaml;
+	/**
+	 * SnakeYAML instances are not thread safe
+	 */
+	private final ThreadLocal<Yaml> yaml = ThreadLocal.withInitial(Yaml::new);
 
 	private final MarkdownService markdownService;
 
-	private final PrismJsService prismJsService;
+	private final ArtifactService artifactService;
 
-	private final String brotliCmd;
+	/**
+	 * Reads and renders posts in parallel, the pages are compressed afterwards in one
+	 * batch
+	 */
+	private final ForkJoinPool generationPool;
 
 	private Template postTemplate;
 
+	/**
+	 * Hash of everything besides the post itself that ends up in a post page: the
+	 * template, the Prism version and the markdown configuration
+	 */
+	private String generatorFingerprint;
+
+	private final BuildManifest buildManifest;
+
 	private final Pattern headerPattern = Pattern.compile("---(.*?)---(.*)",
 			Pattern.DOTALL);
 
 	public FileService(AppProperties appProperties, MarkdownService markdownService,
-			GitHubCodeService gitHubCodeService, PrismJsService prismJsService,
+			GitHubCodeService gitHubCodeService, ArtifactService artifactService,
 			Mustache.Compiler mustacheCompiler) {
 		this.workDir = Paths.get(appProperties.getWorkDir());
-		this.brotliCmd = appProperties.getBrotliCmd();
+		this.artifactService = artifactService;
+
+		int parallelism = appProperties.getGenerationParallelism();
+		if (parallelism <= 0) {
+			parallelism = Runtime.getRuntime().availableProcessors();
+		}
+		this.generationPool = new ForkJoinPool(parallelism);
 		this.gitHubCodeService = gitHubCodeService;
 		this.markdownService = markdownService;
-		this.yaml = new Yaml();
-		this.prismJsService = prismJsService;
+		this.buildManifest = new BuildManifest(
+				Paths.get(appProperties.getLuceneDir(), "build-manifest.txt"));
 
 		ClassPathResource cpr = new ClassPathResource("/templates/post.mustache");
-		try (InputStream is = cpr.getInputStream();
-				InputStreamReader isr = new InputStreamReader(is,
-						StandardCharsets.UTF_8);) {
+		try (InputStream is = cpr.getInputStream()) {
+			String templateSource = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+			this.generatorFingerprint = BuildManifest.hash(List.of(templateSource,
+					appProperties.getPrismJsVersion(), markdownService.getFingerprint()));
 			this.postTemplate = mustacheCompiler.withFormatter(new Mustache.Formatter() {
 				@Override
 				public String format(Object value) {
@@ -86,13 +113,18 @@ public class FileService {
 
 				protected DateTimeFormatter _fmt = DateTimeFormatter
 						.ofPattern("MMMM dd, yyyy", Locale.ENGLISH);
-			}).compile(isr);
+			}).compile(templateSource);
 		}
 		catch (IOException e) {
 			Application.logger.error("init post template", e);
 		}
 	}
 
+	@PreDestroy
+	public void destroy() {
+		this.generationPool.shutdown();
+	}
+
 	public void deleteHtml(Set<String> deletedFiles) {
 		for (String url : deletedFiles) {
 			Path mdFile = this.workDir.resolve(url);
@@ -100,43 +132,158 @@ public class FileService {
 				Files.deleteIfExists(PostMetadata.siblingPath(mdFile, "html.br"));
 				Files.deleteIfExists(PostMetadata.siblingPath(mdFile, "html.gz"));
 				Files.deleteIfExists(PostMetadata.siblingPath(mdFile, "html"));
+				this.buildManifest.remove(manifestPath(mdFile));
 			}
 			catch (IOException e) {
 				Application.logger.error("delete html file", e);
 			}
 		}
+		this.buildManifest.save();
+	}
 
+	public List<PostContent> readPosts(Set<String> changedUrls) {
+		return readPostFiles(
+				changedUrls.stream().sorted().map(this.workDir::resolve).toList());
 	}
 
-	public List<PostContent> regenerateHtml(Set<String> changedUrls) {
-		List<PostContent> posts = new ArrayList<>();
-		for (String url : changedUrls) {
-			Path mdFile = this.workDir.resolve(url);
+	/**
+	 * Reads the posts in parallel. The result is in the order of the files, files that
+	 * are not valid posts are skipped.
+	 */
+	public List<PostContent> readPostFiles(List<Path> mdFiles) {
+		return inParallel(mdFiles, this::readPost).stream().filter(Objects::nonNull)
+				.toList();
+	}
 
-			Application.logger.info("creating html for {}", mdFile);
-			PostContent content = readPost(mdFile);
-			if (content == null) {
-				continue;
-			}
-			generateHtml(content);
+	/**
+	 * @return true if the template, the Prism version or the markdown configuration
+	 * changed since every page was generated the last time. The build manifest can not
+	 * skip any page then, all posts have to be passed to
+	 * {@link #generateHtml(List, Function, boolean)}.
+	 */
+	public boolean isGeneratorChanged() {
+		return !this.generatorFingerprint.equals(this.buildManifest.getGenerator());
+	}
 
-			posts.add(content);
+	/**
+	 * Stages the html pages and their gzip variants in parallel, then publishes all
+	 * pages of the batch together. A full rebuild therefore replaces the pages only
+	 * after every page is complete. Pages that were generated from the same inputs
+	 * before are skipped. Only the pages that were published are recorded in the build
+	 * manifest, a page that failed is generated again on the next run.
+	 * @param related returns the posts that are listed at the end of a page
+	 * @param allPosts true if the posts are all posts of the blog, the current generator
+	 * fingerprint is recorded when none of the pages failed
+	 */
+	public void generateHtml(List<PostContent> posts,
+			Function<PostContent, List<PostMetadata>> related, boolean allPosts) {
+		List<StagedPage> results = inParallel(posts,
+				post -> generateHtml(post, related.apply(post)));
+		List<StagedPage> pages = results.stream()
+				.filter(page -> page != null && page != StagedPage.UNCHANGED).toList();
+		Set<Artifact> published = new HashSet<>(this.artifactService
+				.publish(pages.stream().map(StagedPage::artifact).toList()));
+		for (StagedPage page : pages) {
+			if (published.contains(page.artifact())) {
+				this.buildManifest.put(page.path(), page.hash());
+			}
+		}
+		if (allPosts && !results.contains(null) && published.size() == pages.size()) {
+			this.buildManifest.setGenerator(this.generatorFingerprint);
 		}
-		return posts;
+		this.buildManifest.save();
+		Application.logger.info("Generated {} of {} post pages, {} unchanged",
+				published.size(), posts.size(),
+				results.stream().filter(page -> page == StagedPage.UNCHANGED).count());
+	}
+
+	/**
+	 * A page that is staged but not yet published, with its build manifest entry
+	 */
+	private record StagedPage(Artifact artifact, String path, String hash) {
+		/**
+		 * Marks a page that was generated from the same inputs before
+		 */
+		static final StagedPage UNCHANGED = new StagedPage(null, null, null);
+	}
+
+	/**
+	 * Applies the function to all items on the generation pool. The results are in the
+	 * order of the items, independent of the order in which the threads finish.
+	 */
+	private <T, R> List<R> inParallel(List<T> items, Function<T, R> function) {
+		return this.generationPool
+				.submit(() -> items.parallelStream().map(function).toList()).join();
 	}
 
-	public void generateHtml(PostContent post) {
+	/**
+	 * Writes the html page of a post, unless the page and its compressed variants exist
+	 * and were generated from the same inputs.
+	 * @param related posts that are listed at the end of the page
+	 * @return the staged page, {@link StagedPage#UNCHANGED} if the page is current, null
+	 * if the page could not be written
+	 */
+	private StagedPage generateHtml(PostContent post, List<PostMetadata> related) {
+		Path mdFile = post.getMetadata().getMdFile();
+		String path = manifestPath(mdFile);
+		String hash = inputHash(post, related);
+		if (this.buildManifest.matches(path, hash) && outputsExist(mdFile)) {
+			post.getRendered().release();
+			return StagedPage.UNCHANGED;
+		}
+
+		// the template streams into the html file and the gzip encoder at the same
+		// time, the related posts are not part of the post, they are looked up in the
+		// parent context
+		Artifact page;
 		try {
-			String postHtml = this.postTemplate.execute(post);
-			Path htmlFile = PostMetadata.siblingPath(post.getMetadata().getMdFile(),
-					"html");
-			Files.write(htmlFile, postHtml.getBytes(StandardCharsets.UTF_8));
-			gzip(htmlFile);
-			brotli(this.brotliCmd, htmlFile);
+			page = ArtifactService.stage(PostMetadata.siblingPath(mdFile, "html"),
+					out -> {
+						Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+						this.postTemplate.execute(post, Map.of("related", related), writer);
+						writer.flush();
+					});
 		}
-		catch (IOException e) {
+		catch (IOException | MustacheException e) {
 			Application.logger.error("generate", e);
+			return null;
 		}
+		finally {
+			// the page is on disk, neither the document nor the html are needed anymore
+			post.getRendered().release();
+		}
+		return new StagedPage(page, path, hash);
+	}
+
+	private String inputHash(PostContent post, List<PostMetadata> related) {
+		PostMetadata metadata = post.getMetadata();
+		List<String> inputs = new ArrayList<>();
+		inputs.add(this.generatorFingerprint);
+		inputs.add(metadata.getUrl());
+		inputs.add(metadata.getTitle());
+		inputs.add(metadata.getSummary());
+		inputs.add(String.valueOf(metadata.getTags()));
+		inputs.add(String.valueOf(metadata.getPublished()));
+		inputs.add(String.valueOf(metadata.getUpdated()));
+		inputs.add(String.valueOf(metadata.isDraft()));
+		// the markdown already contains the code of the github embeds
+		inputs.add(post.getMarkdown());
+		for (PostMetadata relatedPost : related) {
+			inputs.add(relatedPost.getUrl());
+			inputs.add(relatedPost.getTitle());
+		}
+		return BuildManifest.hash(inputs);
+	}
+
+	private boolean outputsExist(Path mdFile) {
+		return Files.exists(PostMetadata.siblingPath(mdFile, "html"))
+				&& Files.exists(PostMetadata.siblingPath(mdFile, "html.gz"))
+				&& (!this.artifactService.isBrotliEnabled()
+						|| Files.exists(PostMetadata.siblingPath(mdFile, "html.br")));
+	}
+
+	private String manifestPath(Path mdFile) {
+		return PostMetadata.url(this.workDir, mdFile);
 	}
 
 	public List<Path> collectMdFiles() {
@@ -146,8 +293,7 @@ public class FileService {
 	}
 
 	public List<PostContent> collectAndReadPosts() {
-		return collectMdFiles().stream().map(this::readPost).filter(Objects::nonNull)
-				.toList();
+		return readPostFiles(collectMdFiles());
 	}
 
 	public PostContent readPost(Path mdFile) {
@@ -164,18 +310,17 @@ public class FileService {
 			}
 
 			String headerString = matcher.group(1);
-			PostHeader header = this.yaml.loadAs(headerString, PostHeader.class);
+			PostHeader header = this.yaml.get().loadAs(headerString, PostHeader.class);
 			PostMetadata metadata = new PostMetadata(header, this.workDir, mdFile);
 
 			// insert github code
 			String markdown = matcher.group(2);
 			markdown = this.gitHubCodeService.insertCode(markdown);
 
-			// convert md to html
-			String html = this.markdownService.renderHtml(markdown);
-			html = this.prismJsService.prism(html);
-
-			return new PostContent(metadata, markdown, html);
+			// parse once, the html is only rendered and highlighted when the page is
+			// generated
+			return new PostContent(metadata, markdown,
+					this.markdownService.render(markdown));
 		}
 		catch (IOException e) {
 			Application.logger.error("readPost", e);
@@ -209,40 +354,4 @@ public class FileService {
 		}
 	}
 
-	public static void gzip(Path file) {
-		Path outfile = file.resolveSibling(file.getFileName().toString() + ".gz");
-
-		try (OutputStream out = Files.newOutputStream(outfile);
-				MyGZIPOutputStream gzout = new MyGZIPOutputStream(out)) {
-			gzout.setLevel(Deflater.BEST_COMPRESSION);
-			Files.copy(file, gzout);
-		}
-		catch (IOException e) {
-			Application.logger.error("gzip", e);
-		}
-	}
-
-	public static void brotli(String brotliCmd, Path file) {
-		if (brotliCmd != null && !brotliCmd.isBlank()) {
-			List<String> cmds = new ArrayList<>(List.of(brotliCmd.trim().split("\\s+")));
-			cmds.add(file.toString());
-			ProcessBuilder builder = new ProcessBuilder(cmds);
-
-			try {
-				Process process = builder.start();
-				int exitCode = process.waitFor();
-				if (exitCode != 0) {
-					Application.logger.error("brotli exited with code {}", exitCode);
-				}
-			}
-			catch (IOException e) {
-				Application.logger.error("brotli", e);
-			}
-			catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				Application.logger.error("brotli interrupted", e);
-			}
-		}
-	}
-
 }
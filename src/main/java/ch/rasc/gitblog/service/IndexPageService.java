@@ -0,0 +1,224 @@
+package ch.rasc.gitblog.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+
+import ch.rasc.gitblog.AppProperties;
+import ch.rasc.gitblog.Application;
+import ch.rasc.gitblog.component.LuceneService;
+import ch.rasc.gitblog.dto.IndexQuery;
+import ch.rasc.gitblog.dto.PostCatalog;
+import ch.rasc.gitblog.dto.SearchPage;
+import ch.rasc.gitblog.dto.SearchResults;
+import ch.rasc.gitblog.dto.YearNavigation;
+
+/**
+ * Renders the index page and keeps the rendered bytes in a cache. The index only
+ * changes when a git sync commits, so every entry belongs to an index generation and
+ * the cache is cleared as soon as {@link LuceneService} reports a new generation.
+ */
+@Service
+public class IndexPageService {
+
+	public static final int MAX_PAGE_SIZE = 100;
+
+	private record PageKey(IndexQuery query, int currentYear) {
+	}
+
+	private final Template indexTemplate;
+
+	private final LuceneService luceneService;
+
+	private final int defaultPageSize;
+
+	private final Cache<PageKey, byte[]> pageCache;
+
+	private volatile long cacheGeneration = -1;
+
+	private volatile PostCatalog catalog = PostCatalog.EMPTY;
+
+	public IndexPageService(Mustache.Compiler mustacheCompiler,
+			LuceneService luceneService, AppProperties appProperties)
+			throws IOException {
+		this.luceneService = luceneService;
+		this.defaultPageSize = Math.max(1,
+				Math.min(appProperties.getIndexPageSize(), MAX_PAGE_SIZE));
+
+		this.pageCache = Caffeine.newBuilder()
+				.maximumWeight(appProperties.getIndexPageCacheSize().toBytes())
+				.weigher((PageKey key, byte[] value) -> value.length).build();
+
+		ClassPathResource cpr = new ClassPathResource("/templates/index.mustache");
+		try (InputStream is = cpr.getInputStream();
+				InputStreamReader isr = new InputStreamReader(is,
+						StandardCharsets.UTF_8);) {
+			this.indexTemplate = mustacheCompiler.withFormatter(new Mustache.Formatter() {
+				@Override
+				public String format(Object value) {
+					if (value instanceof ZonedDateTime) {
+						return ((ZonedDateTime) value).format(this._fmt);
+					}
+					return String.valueOf(value);
+				}
+
+				protected DateTimeFormatter _fmt = DateTimeFormatter
+						.ofPattern("MMMM dd, yyyy", Locale.ENGLISH);
+			}).compile(isr);
+		}
+	}
+
+	public int getDefaultPageSize() {
+		return this.defaultPageSize;
+	}
+
+	/**
+	 * Switches the year navigation and the tag cloud to a new catalog and renders the
+	 * landing page without any query parameters into the cache. Called after each sync
+	 * so the first visitor does not have to wait for it.
+	 */
+	public void publish(PostCatalog newCatalog) {
+		this.catalog = newCatalog;
+		this.pageCache.invalidateAll();
+		render(new IndexQuery(null, null, false, null, null, null, false, 1,
+				this.defaultPageSize, null));
+		Application.logger.info("Pre-rendered index page for generation {}",
+				this.cacheGeneration);
+	}
+
+	public byte[] render(IndexQuery query) {
+		long generation = this.luceneService.getGeneration();
+		if (generation != this.cacheGeneration) {
+			this.pageCache.invalidateAll();
+			this.cacheGeneration = generation;
+		}
+
+		PageKey key = new PageKey(query, LocalDate.now().getYear());
+
+		byte[] html = this.pageCache.getIfPresent(key);
+		if (html == null) {
+			html = this.indexTemplate.execute(createResults(key))
+					.getBytes(StandardCharsets.UTF_8);
+
+			// don't store a page that was rendered from an index that changed
+			// in the meantime
+			if (generation == this.luceneService.getGeneration()) {
+				this.pageCache.put(key, html);
+			}
+		}
+		return html;
+	}
+
+	private SearchResults createResults(PageKey key) {
+		IndexQuery query = key.query();
+		String cursor = query.cursor();
+		int size = query.size();
+		int page = query.page();
+
+		PostCatalog postCatalog = this.catalog;
+		Integer currentYear = null;
+		SearchPage searchPage;
+		String queryString = null;
+		String listing = null;
+		StringBuilder linkBase = new StringBuilder("/index.html?");
+		if (query.tag() != null) {
+			queryString = "tags:" + query.tag();
+			searchPage = this.luceneService.searchWithTag(query.tag(), cursor, size);
+			appendParam(linkBase, "tag", query.tag());
+		}
+		else if (query.query() != null && query.code()) {
+			searchPage = this.luceneService.searchWithCode(query.query(), cursor, size);
+			queryString = query.query();
+			appendParam(linkBase, "query", query.query());
+			appendParam(linkBase, "mode", "code");
+		}
+		else if (query.query() != null) {
+			searchPage = this.luceneService.searchWithQuery(query.query(), cursor, size);
+			queryString = query.query();
+			appendParam(linkBase, "query", query.query());
+		}
+		else if (query.updated()) {
+			searchPage = this.luceneService.getRecentlyUpdated(cursor, size);
+			listing = "Recently updated";
+			appendParam(linkBase, "updated", "true");
+		}
+		else if (query.from() != null || query.to() != null) {
+			searchPage = this.luceneService.getPostsBetween(query.from(), query.to(),
+					cursor, size);
+			listing = "Published";
+			if (query.from() != null) {
+				listing += " from " + query.from();
+				appendParam(linkBase, "from", query.from().toString());
+			}
+			if (query.to() != null) {
+				listing += " until " + query.to();
+				appendParam(linkBase, "to", query.to().toString());
+			}
+		}
+		else if (query.year() != null) {
+			currentYear = query.year();
+			searchPage = this.luceneService.getPostsOfYear(currentYear, cursor, size);
+			appendParam(linkBase, "year", String.valueOf(currentYear));
+		}
+		else {
+			currentYear = key.currentYear();
+			if (!postCatalog.hasYear(currentYear)) {
+				currentYear = currentYear - 1;
+			}
+			searchPage = this.luceneService.getPostsOfYear(currentYear, cursor, size);
+			appendParam(linkBase, "year", String.valueOf(currentYear));
+		}
+
+		final Integer queryYear = currentYear;
+		List<YearNavigation> yearNavigation = postCatalog.getYears().stream()
+				.map(y -> new YearNavigation(y, y.equals(queryYear))).toList();
+
+		if (size != this.defaultPageSize) {
+			appendParam(linkBase, "size", String.valueOf(size));
+		}
+
+		String previousUrl = null;
+		if (searchPage.getPreviousCursor() != null) {
+			StringBuilder sb = new StringBuilder(linkBase);
+			if (page > 2) {
+				appendParam(sb, "page", String.valueOf(page - 1));
+				appendParam(sb, "cursor", searchPage.getPreviousCursor());
+			}
+			previousUrl = sb.substring(0, sb.length() - 1);
+		}
+
+		String nextUrl = null;
+		if (searchPage.getNextCursor() != null) {
+			StringBuilder sb = new StringBuilder(linkBase);
+			appendParam(sb, "page", String.valueOf(page + 1));
+			appendParam(sb, "cursor", searchPage.getNextCursor());
+			nextUrl = sb.substring(0, sb.length() - 1);
+		}
+
+		int pages = (int) ((searchPage.getTotalHits() + size - 1) / size);
+		return new SearchResults(searchPage.getPosts(), queryString, query.code(),
+				listing, yearNavigation, postCatalog.getTagCounts(),
+				searchPage.getTotalHits(), page, pages, previousUrl, nextUrl);
+	}
+
+	private static void appendParam(StringBuilder sb, String name, String value) {
+		sb.append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8))
+				.append('&');
+	}
+
+}
@@ -1,7 +1,16 @@
 package ch.rasc.gitblog.service;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -12,6 +21,7 @@ import jakarta.annotation.PreDestroy;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import ch.rasc.gitblog.AppProperties;
 import ch.rasc.gitblog.Application;
 import ch.rasc.gitblog.component.FeedService;
 import ch.rasc.gitblog.component.GitService;
@@ -19,6 +29,7 @@ import ch.rasc.gitblog.component.LuceneService;
 import ch.rasc.gitblog.component.SitemapService;
 import ch.rasc.gitblog.component.URLChecker;
 import ch.rasc.gitblog.dto.GitChange;
+import ch.rasc.gitblog.dto.PostCatalog;
 import ch.rasc.gitblog.dto.PostContent;
 import ch.rasc.gitblog.dto.PostMetadata;
 
@@ -39,9 +50,25 @@ public class MainService {
 
 	private final GitService gitService;
 
+	private final IndexPageService indexPageService;
+
+	private final int relatedPosts;
+
+	/**
+	 * Related posts that were written into the html files, survives restarts so that
+	 * only posts with new related posts are rendered again
+	 */
+	private final Path relatedPostsFile;
+
+	/**
+	 * Metadata of all published posts, replaced after every sync
+	 */
+	private volatile PostCatalog catalog = PostCatalog.EMPTY;
+
 	public MainService(FileService fileService, FeedService feedService,
 			SitemapService sitemapService, LuceneService luceneSerivce,
-			GitService gitService, URLChecker urlChecker) {
+			GitService gitService, URLChecker urlChecker,
+			IndexPageService indexPageService, AppProperties appProperties) {
 
 		this.fileService = fileService;
 		this.feedService = feedService;
@@ -49,6 +76,10 @@ public class MainService {
 		this.luceneSerivce = luceneSerivce;
 		this.urlChecker = urlChecker;
 		this.gitService = gitService;
+		this.indexPageService = indexPageService;
+		this.relatedPosts = appProperties.getRelatedPosts();
+		this.relatedPostsFile = Paths.get(appProperties.getLuceneDir(),
+				"related-posts.txt");
 
 		this.executorService = Executors.newSingleThreadExecutor();
 	}
@@ -69,13 +100,26 @@ public class MainService {
 		}
 		else {
 			List<GitChange> changes = this.gitService.pull();
+
+			// an in-memory index is empty after every start, an index with an older
+			// schema is rebuilt next to the active one
+			if (!this.luceneSerivce.hasIndex()) {
+				Application.logger.info("No Index. Index All");
+				indexAll();
+			}
+			else if (!this.luceneSerivce.isIndexCurrent()) {
+				Application.logger.info("Index schema changed. Index All");
+				indexAll();
+			}
+
 			if (!changes.isEmpty()) {
 				changes.forEach(c -> Application.logger.info("Git Change: {}", c));
 				handleChanges(changes);
 			}
-			else if (this.luceneSerivce.hasIndex()) {
+			else {
 				Application.logger.info("Has Index");
-				List<PostMetadata> publishedPosts = this.luceneSerivce.getAll();
+				updateCatalog(List.of());
+				List<PostMetadata> publishedPosts = this.catalog.getPosts();
 				if (!this.feedService.filesExists()) {
 					Application.logger.info("Generate Feeds");
 					this.feedService.writeFeeds(publishedPosts);
@@ -89,14 +133,12 @@ public class MainService {
 				if (!this.urlChecker.reportExists()) {
 					Application.logger.info("Generate URL Check Report");
 					this.executorService
-							.submit(() -> this.urlChecker.checkURLs(publishedPosts));
+							.submit(() -> checkURLs(publishedPosts));
 				}
 			}
-			else {
-				Application.logger.info("No Index. Index All");
-				indexAll();
-			}
 		}
+
+		this.indexPageService.publish(this.catalog);
 	}
 
 	private void handleChanges(List<GitChange> changes) {
@@ -140,9 +182,9 @@ public class MainService {
 		this.fileService.deleteHtml(deletedFiles);
 		this.luceneSerivce.delete(deletedFiles);
 
-		List<PostContent> changedPosts = this.fileService
-				.regenerateHtml(changedOrNewFiles);
+		List<PostContent> changedPosts = this.fileService.readPosts(changedOrNewFiles);
 		this.luceneSerivce.index(changedPosts);
+		updateCatalog(changedPosts);
 
 		// only write feeds and sitemap if a published post changed
 		if (changedPosts.stream().anyMatch(post -> !post.getMetadata().isDraft())) {
@@ -157,28 +199,123 @@ public class MainService {
 
 	private void generateAll() {
 		List<PostContent> allPosts = this.fileService.collectAndReadPosts();
-		allPosts.forEach(this.fileService::generateHtml);
-		this.luceneSerivce.deleteIndex();
-		this.luceneSerivce.index(allPosts);
+		this.luceneSerivce.rebuild(allPosts);
+		updateCatalog(allPosts);
 
 		writeFeedsAndSitemap();
 	}
 	
 	private void indexAll() {
 		List<PostContent> allPosts = this.fileService.collectAndReadPosts();
-		this.luceneSerivce.deleteIndex();
-		this.luceneSerivce.index(allPosts);
+		this.luceneSerivce.rebuild(allPosts);
+	}
+
+	/**
+	 * Publishes a new catalog with the related posts of the current index. The html
+	 * pages of the given posts are written, and of every other post whose related
+	 * posts differ from the ones in its current html file or link to one of the given
+	 * posts, whose title may have changed. The build manifest skips the pages whose
+	 * related titles are unchanged. When the page generator changed, the pages of all
+	 * posts are written.
+	 */
+	private void updateCatalog(List<PostContent> changedPosts) {
+		Map<String, List<String>> previousRelated = this.catalog == PostCatalog.EMPTY
+				? readRelatedPosts()
+				: this.catalog.getRelatedUrls();
+
+		PostCatalog newCatalog = PostCatalog.of(this.luceneSerivce.getAll(),
+				this.luceneSerivce.getRelatedPosts(this.relatedPosts),
+				this.luceneSerivce.getFacetCounts());
+		this.catalog = newCatalog;
+
+		Set<String> changedUrls = new HashSet<>();
+		for (PostContent post : changedPosts) {
+			changedUrls.add(post.getMetadata().getUrl());
+		}
+
+		Map<String, List<String>> related = newCatalog.getRelatedUrls();
+		List<Path> otherPosts = new ArrayList<>();
+		boolean generatorChanged = this.fileService.isGeneratorChanged();
+		if (generatorChanged) {
+			// every page was written with the old template or markdown configuration,
+			// drafts included
+			Application.logger.info("Page generator changed, generate all pages");
+			Set<Path> changedMdFiles = new HashSet<>();
+			for (PostContent post : changedPosts) {
+				changedMdFiles.add(post.getMetadata().getMdFile());
+			}
+			for (Path mdFile : this.fileService.collectMdFiles()) {
+				if (!changedMdFiles.contains(mdFile)) {
+					otherPosts.add(mdFile);
+				}
+			}
+		}
+		else {
+			for (Map.Entry<String, List<String>> entry : related.entrySet()) {
+				String url = entry.getKey();
+				if (!changedUrls.contains(url) && (!entry.getValue()
+						.equals(previousRelated.get(url))
+						|| entry.getValue().stream().anyMatch(changedUrls::contains))) {
+					Application.logger.info("Related posts of {} changed", url);
+					otherPosts.add(newCatalog.find(url).getMdFile());
+				}
+			}
+		}
+		otherPosts.sort(null);
+
+		List<PostContent> posts = new ArrayList<>(changedPosts);
+		posts.addAll(this.fileService.readPostFiles(otherPosts));
+		this.fileService.generateHtml(posts,
+				post -> newCatalog.getRelated(post.getMetadata().getUrl()),
+				generatorChanged);
+
+		writeRelatedPosts(related);
+	}
+
+	private Map<String, List<String>> readRelatedPosts() {
+		Map<String, List<String>> related = new HashMap<>();
+		if (Files.exists(this.relatedPostsFile)) {
+			try {
+				for (String line : Files.readAllLines(this.relatedPostsFile,
+						StandardCharsets.UTF_8)) {
+					String[] urls = line.split("\t");
+					related.put(urls[0],
+							new ArrayList<>(Arrays.asList(urls).subList(1, urls.length)));
+				}
+			}
+			catch (IOException e) {
+				Application.logger.error("read related posts", e);
+			}
+		}
+		return related;
+	}
+
+	private void writeRelatedPosts(Map<String, List<String>> related) {
+		List<String> lines = new ArrayList<>(related.size());
+		related.forEach((url, urls) -> {
+			List<String> columns = new ArrayList<>(urls.size() + 1);
+			columns.add(url);
+			columns.addAll(urls);
+			lines.add(String.join("\t", columns));
+		});
+		try {
+			Files.createDirectories(this.relatedPostsFile.getParent());
+			Files.write(this.relatedPostsFile, lines, StandardCharsets.UTF_8);
+		}
+		catch (IOException e) {
+			Application.logger.error("write related posts", e);
+		}
 	}
 
 	private void writeFeedsAndSitemap() {
-		List<PostMetadata> publishedPostMetadata = this.luceneSerivce.getAll();
+		List<PostMetadata> publishedPostMetadata = this.catalog.getPosts();
 		this.feedService.writeFeeds(publishedPostMetadata);
 		this.sitemapService.writeSitemap(publishedPostMetadata);
 		this.sitemapService.pingSearchEngines();
 
 		if (!this.urlChecker.reportExists()) {
 			this.executorService
-					.submit(() -> this.urlChecker.checkURLs(publishedPostMetadata));
+					.submit(() -> checkURLs(publishedPostMetadata));
 		}
 	}
 
@@ -188,12 +325,16 @@ public class MainService {
 		setup();
 	}
 
+	private void checkURLs(List<PostMetadata> publishedPosts) {
+		this.urlChecker.checkURLs(publishedPosts, this.luceneSerivce.getLinks());
+	}
+
 	@Scheduled(cron = "0 0 2 1 * *")
 	public void checkURLs() {
 		Application.logger.info("Checking URLs");
-		if (this.luceneSerivce.hasIndex()) {
-			List<PostMetadata> publishedPosts = this.luceneSerivce.getAll();
-			this.executorService.submit(() -> this.urlChecker.checkURLs(publishedPosts));
+		List<PostMetadata> publishedPosts = this.catalog.getPosts();
+		if (!publishedPosts.isEmpty()) {
+			this.executorService.submit(() -> checkURLs(publishedPosts));
 		}
 	}
 
@@ -0,0 +1,62 @@
+package ch.rasc.gitblog.util;
+
+import java.util.regex.Pattern;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.FlattenGraphFilter;
+import org.apache.lucene.analysis.miscellaneous.WordDelimiterGraphFilter;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.apache.lucene.analysis.pattern.PatternTokenizer;
+
+/**
+ * Analyzer for source code. Extracts identifiers, splits them on case changes,
+ * underscores and digits and lower cases the parts. The index variant additionally
+ * emits the edge n-grams of the identifiers and their parts, so a prefix of an
+ * identifier part is found with a plain term query.
+ */
+public class CodeIdentifierAnalyzer extends Analyzer {
+
+	public static final int MIN_GRAM = 2;
+
+	public static final int MAX_GRAM = 20;
+
+	private static final Pattern IDENTIFIER = Pattern
+			.compile("[\\p{L}_$][\\p{L}\\p{N}_$]*");
+
+	private final boolean index;
+
+	/**
+	 * @param index true for the analyzer that writes the index (with edge n-grams),
+	 * false for the analyzer that splits the search input
+	 */
+	public CodeIdentifierAnalyzer(boolean index) {
+		this.index = index;
+	}
+
+	@Override
+	protected TokenStreamComponents createComponents(String fieldName) {
+		Tokenizer tokenizer = new PatternTokenizer(IDENTIFIER, 0);
+
+		int flags = WordDelimiterGraphFilter.GENERATE_WORD_PARTS
+				| WordDelimiterGraphFilter.GENERATE_NUMBER_PARTS
+				| WordDelimiterGraphFilter.SPLIT_ON_CASE_CHANGE
+				| WordDelimiterGraphFilter.SPLIT_ON_NUMERICS;
+		if (this.index) {
+			flags |= WordDelimiterGraphFilter.PRESERVE_ORIGINAL;
+		}
+
+		TokenStream stream = new WordDelimiterGraphFilter(tokenizer, flags, null);
+		if (this.index) {
+			stream = new FlattenGraphFilter(stream);
+		}
+		stream = new LowerCaseFilter(stream);
+		if (this.index) {
+			stream = new EdgeNGramTokenFilter(stream, MIN_GRAM, MAX_GRAM, true);
+		}
+		return new TokenStreamComponents(tokenizer, stream);
+	}
+
+}
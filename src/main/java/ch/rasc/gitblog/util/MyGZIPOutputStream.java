@@ -4,6 +4,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.zip.GZIPOutputStream;
 
+/**
+ * GZIPOutputStream with a configurable compression level. The JDK writes a constant
+ * header without file name and with a modification time of 0, so the same input
+ * always produces the same bytes.
+ */
 public class MyGZIPOutputStream extends GZIPOutputStream {
 
 	public MyGZIPOutputStream(OutputStream out) throws IOException {
@@ -0,0 +1,93 @@
+package ch.rasc.gitblog.util;
+
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import com.vladsch.flexmark.ast.FencedCodeBlock;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.html.HtmlRendererOptions;
+import com.vladsch.flexmark.html.HtmlWriter;
+import com.vladsch.flexmark.html.renderer.CoreNodeRenderer;
+import com.vladsch.flexmark.html.renderer.NodeRenderer;
+import com.vladsch.flexmark.html.renderer.NodeRendererContext;
+import com.vladsch.flexmark.html.renderer.NodeRenderingHandler;
+import com.vladsch.flexmark.util.data.MutableDataHolder;
+import com.vladsch.flexmark.util.misc.CharPredicate;
+import com.vladsch.flexmark.util.misc.Extension;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+
+/**
+ * Highlights fenced code blocks with a language while the html is rendered. Blocks
+ * without a language and blocks that could not be highlighted are rendered by the
+ * default renderer.
+ */
+public class PrismHighlightExtension implements HtmlRenderer.HtmlRendererExtension {
+
+	/**
+	 * Returns the highlighted html of the code in the given language, or null
+	 */
+	private final BiFunction<String, String, String> highlighter;
+
+	private PrismHighlightExtension(BiFunction<String, String, String> highlighter) {
+		this.highlighter = highlighter;
+	}
+
+	@Override
+	public void rendererOptions(MutableDataHolder options) {
+		// Currently no options supported.
+	}
+
+	@Override
+	public void extend(final HtmlRenderer.Builder rendererBuilder,
+			final String rendererType) {
+		rendererBuilder.nodeRendererFactory(options -> new NodeRenderer() {
+			@Override
+			public Set<NodeRenderingHandler<?>> getNodeRenderingHandlers() {
+				return Set.of(new NodeRenderingHandler<>(FencedCodeBlock.class,
+						PrismHighlightExtension.this::render));
+			}
+		});
+	}
+
+	private void render(FencedCodeBlock node, NodeRendererContext context,
+			HtmlWriter html) {
+		BasedSequence info = node.getInfo();
+		String language = null;
+		String highlighted = null;
+		if (info.isNotNull() && !info.isBlank()) {
+			language = node.getInfoDelimitedByAny(CharPredicate.SPACE_TAB).unescape();
+			highlighted = this.highlighter
+					.apply(node.getContentChars().normalizeEOL(), language);
+		}
+		if (highlighted == null) {
+			context.delegateRender();
+			return;
+		}
+
+		// the same markup as the default renderer, with the highlighted code as content
+		HtmlRendererOptions htmlOptions = context.getHtmlOptions();
+		html.line();
+		html.srcPosWithTrailingEOL(node.getChars()).withAttr().tag("pre").openPre();
+		html.attr("class", htmlOptions.languageClassMap.getOrDefault(language,
+				htmlOptions.languageClassPrefix + language));
+		html.srcPosWithEOL(node.getContentChars())
+				.withAttr(CoreNodeRenderer.CODE_CONTENT).tag("code");
+		html.raw(highlighted);
+		html.tag("/code");
+		html.tag("/pre").closePre();
+		html.lineIf(htmlOptions.htmlBlockCloseTagEol);
+	}
+
+	/**
+	 * Creates the extension for the parser and renderer options. The highlighter is
+	 * called while the html is rendered, once for every fenced code block with a
+	 * language.
+	 *
+	 * @param highlighter returns the highlighted html of the code in the given
+	 * language, or null if the code can not be highlighted
+	 * @return an instance of the extension
+	 */
+	public static Extension create(BiFunction<String, String, String> highlighter) {
+		return new PrismHighlightExtension(highlighter);
+	}
+}
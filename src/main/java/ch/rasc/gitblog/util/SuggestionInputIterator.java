@@ -0,0 +1,58 @@
+package ch.rasc.gitblog.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.util.BytesRef;
+
+public class SuggestionInputIterator implements InputIterator {
+
+	public record Input(String text, long weight, String payload, String context) {
+	}
+
+	private final Iterator<Input> inputs;
+
+	private Input current;
+
+	public SuggestionInputIterator(List<Input> inputs) {
+		this.inputs = inputs.iterator();
+	}
+
+	@Override
+	public BytesRef next() {
+		if (this.inputs.hasNext()) {
+			this.current = this.inputs.next();
+			return new BytesRef(this.current.text());
+		}
+		return null;
+	}
+
+	@Override
+	public long weight() {
+		return this.current.weight();
+	}
+
+	@Override
+	public BytesRef payload() {
+		return new BytesRef(this.current.payload().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public boolean hasPayloads() {
+		return true;
+	}
+
+	@Override
+	public Set<BytesRef> contexts() {
+		return Set.of(new BytesRef(this.current.context()));
+	}
+
+	@Override
+	public boolean hasContexts() {
+		return true;
+	}
+
+}
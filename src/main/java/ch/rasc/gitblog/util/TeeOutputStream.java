@@ -0,0 +1,48 @@
+package ch.rasc.gitblog.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes every byte into two streams. Closes the first stream before the second one.
+ */
+public class TeeOutputStream extends OutputStream {
+
+	private final OutputStream first;
+
+	private final OutputStream second;
+
+	public TeeOutputStream(OutputStream first, OutputStream second) {
+		this.first = first;
+		this.second = second;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.first.write(b);
+		this.second.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		this.first.write(b, off, len);
+		this.second.write(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		this.first.flush();
+		this.second.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.first.close();
+		}
+		finally {
+			this.second.close();
+		}
+	}
+
+}
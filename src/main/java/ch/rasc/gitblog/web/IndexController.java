@@ -1,18 +1,12 @@
 package ch.rasc.gitblog.web;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Locale;
-import java.util.Set;
-
-import org.springframework.core.io.ClassPathResource;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.function.Function;
+
 import org.springframework.http.CacheControl;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -21,107 +15,98 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
-import com.samskivert.mustache.Mustache;
-import com.samskivert.mustache.Template;
-
-import ch.rasc.gitblog.component.LuceneService;
-import ch.rasc.gitblog.dto.PostMetadata;
-import ch.rasc.gitblog.dto.SearchResults;
-import ch.rasc.gitblog.dto.YearNavigation;
+import ch.rasc.gitblog.dto.IndexQuery;
+import ch.rasc.gitblog.service.IndexPageService;
 
 @Controller
 public class IndexController {
 
-	private final Template indexTemplate;
-
-	private final LuceneService luceneService;
-
-	public IndexController(Mustache.Compiler mustacheCompiler,
-			LuceneService luceneService) throws IOException {
-		this.luceneService = luceneService;
-
-		ClassPathResource cpr = new ClassPathResource("/templates/index.mustache");
-		try (InputStream is = cpr.getInputStream();
-				InputStreamReader isr = new InputStreamReader(is,
-						StandardCharsets.UTF_8);) {
-			this.indexTemplate = mustacheCompiler.withFormatter(new Mustache.Formatter() {
-				@Override
-				public String format(Object value) {
-					if (value instanceof ZonedDateTime) {
-						return ((ZonedDateTime) value).format(this._fmt);
-					}
-					return String.valueOf(value);
-				}
-
-				protected DateTimeFormatter _fmt = DateTimeFormatter
-						.ofPattern("MMMM dd, yyyy", Locale.ENGLISH);
-			}).compile(isr);
-		}
+	private static final MediaType TEXT_HTML_UTF8 = new MediaType(MediaType.TEXT_HTML,
+			StandardCharsets.UTF_8);
+
+	private final IndexPageService indexPageService;
+
+	public IndexController(IndexPageService indexPageService) {
+		this.indexPageService = indexPageService;
 	}
 
 	@GetMapping({ "/", "/index.html" })
-	public ResponseEntity<?> index(
+	public ResponseEntity<byte[]> index(
 			@RequestParam(name = "tag", required = false) String tag,
 			@RequestParam(name = "query", required = false) String query,
-			@RequestParam(name = "year", required = false) String yearString) {
-
-		Integer year = null;
-		if (StringUtils.hasText(yearString)) {
-			try {
-				year = Integer.parseInt(yearString);
-			}
-			catch (NumberFormatException e) {
-				// ignore this
-			}
+			@RequestParam(name = "mode", required = false) String mode,
+			@RequestParam(name = "year", required = false) String yearString,
+			@RequestParam(name = "month", required = false) String monthString,
+			@RequestParam(name = "from", required = false) String fromString,
+			@RequestParam(name = "to", required = false) String toString,
+			@RequestParam(name = "updated", required = false) String updated,
+			@RequestParam(name = "page", required = false) String pageString,
+			@RequestParam(name = "size", required = false) String sizeString,
+			@RequestParam(name = "cursor", required = false) String cursor) {
+
+		Integer year = parseInt(yearString);
+		if (year != null && !ChronoField.YEAR.range().isValidIntValue(year)) {
+			year = null;
 		}
 
-		Set<Integer> years = this.luceneService.getPublishedYears();
-		List<YearNavigation> yearNavigation;
-
-		List<PostMetadata> posts;
-		String queryString = null;
-		if (StringUtils.hasText(tag)) {
-			queryString = "tags:" + tag;
-			posts = this.luceneService.searchWithTag(tag);
-
-			yearNavigation = years.stream().map(y -> new YearNavigation(y, false))
-					.sorted(Comparator.reverseOrder()).toList();
+		// a month is a shortcut for a date range from the first to the last day
+		LocalDate from;
+		LocalDate to;
+		YearMonth month = parse(monthString, YearMonth::parse);
+		if (month != null) {
+			from = month.atDay(1);
+			to = month.atEndOfMonth();
+		}
+		else {
+			from = parse(fromString, LocalDate::parse);
+			to = parse(toString, LocalDate::parse);
 		}
-		else if (StringUtils.hasText(query)) {
-			posts = this.luceneService.searchWithQuery(query);
-			queryString = query;
 
-			yearNavigation = years.stream().map(y -> new YearNavigation(y, false))
-					.sorted(Comparator.reverseOrder()).toList();
+		int size = this.indexPageService.getDefaultPageSize();
+		Integer sizeParam = parseInt(sizeString);
+		if (sizeParam != null && sizeParam > 0) {
+			size = Math.min(sizeParam, IndexPageService.MAX_PAGE_SIZE);
 		}
-		else if (year != null) {
-			posts = this.luceneService.getPostsOfYear(year);
 
-			final int queryYear = year;
-			yearNavigation = years.stream()
-					.map(y -> new YearNavigation(y, y == queryYear))
-					.sorted(Comparator.reverseOrder()).toList();
+		// without a cursor there is no way to jump into the middle of the results
+		int page = 1;
+		Integer pageParam = parseInt(pageString);
+		if (StringUtils.hasText(cursor) && pageParam != null && pageParam > 1) {
+			page = pageParam;
 		}
 		else {
-			int currentYear = LocalDate.now().getYear();
-			posts = this.luceneService.getPostsOfYear(currentYear);
-
-			if (posts.isEmpty()) {
-				currentYear = currentYear - 1;
-				posts = this.luceneService.getPostsOfYear(currentYear);
-			}
-
-			final int queryYear = currentYear;
-			yearNavigation = years.stream()
-					.map(y -> new YearNavigation(y, y == queryYear))
-					.sorted(Comparator.reverseOrder()).toList();
+			cursor = null;
 		}
 
-		SearchResults result = new SearchResults(posts, queryString, yearNavigation);
-
-		String indexHtml = this.indexTemplate.execute(result);
+		byte[] indexHtml = this.indexPageService.render(new IndexQuery(tag, query,
+				"code".equals(mode), year, from, to, StringUtils.hasText(updated), page,
+				size, cursor));
 
-		return ResponseEntity.ok().contentType(MediaType.TEXT_HTML)
+		return ResponseEntity.ok().contentType(TEXT_HTML_UTF8)
 				.cacheControl(CacheControl.noCache()).body(indexHtml);
 	}
+
+	private static <T> T parse(String value, Function<String, T> parser) {
+		if (StringUtils.hasText(value)) {
+			try {
+				return parser.apply(value.trim());
+			}
+			catch (DateTimeParseException e) {
+				// ignore this
+			}
+		}
+		return null;
+	}
+
+	private static Integer parseInt(String value) {
+		if (StringUtils.hasText(value)) {
+			try {
+				return Integer.parseInt(value);
+			}
+			catch (NumberFormatException e) {
+				// ignore this
+			}
+		}
+		return null;
+	}
 }
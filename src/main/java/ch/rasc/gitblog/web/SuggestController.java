@@ -0,0 +1,33 @@
+package ch.rasc.gitblog.web;
+
+import java.util.List;
+
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import ch.rasc.gitblog.component.LuceneService;
+import ch.rasc.gitblog.dto.Suggestion;
+
+@RestController
+public class SuggestController {
+
+	private static final int MAX_INPUT_LENGTH = 50;
+
+	private final LuceneService luceneService;
+
+	public SuggestController(LuceneService luceneService) {
+		this.luceneService = luceneService;
+	}
+
+	@GetMapping("/suggest")
+	public List<Suggestion> suggest(@RequestParam(name = "q", required = false) String q) {
+		if (!StringUtils.hasText(q) || q.trim().length() < 2
+				|| q.length() > MAX_INPUT_LENGTH) {
+			return List.of();
+		}
+		return this.luceneService.suggest(q.trim(), 8);
+	}
+
+}
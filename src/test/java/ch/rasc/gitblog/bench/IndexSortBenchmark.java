@@ -0,0 +1,142 @@
+package ch.rasc.gitblog.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopFieldCollectorManager;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+
+/**
+ * Measures the latency of the first page of a post listing on a synthetic corpus of
+ * 50k posts over 15 years with 50 tags and 10 segments. "before" searches an index
+ * without index sort, with the doc id tie-breaker and an exact total. "after" searches
+ * an index sorted by publish date, stops at a full page and counts the total
+ * separately when it is only a lower bound, like LuceneService.
+ *
+ * Not a test, run the main method with the test classpath.
+ */
+public class IndexSortBenchmark {
+
+	private static final int POSTS = 50_000;
+
+	private static final int PAGE_SIZE = 20;
+
+	private static final int WARMUP_RUNS = 2000;
+
+	private static final int RUNS = 5000;
+
+	private static final Sort NEWEST_FIRST = new Sort(
+			new SortField("publishedts", SortField.Type.LONG, true));
+
+	private static final Sort NEWEST_FIRST_BY_DOC = new Sort(
+			new SortField("publishedts", SortField.Type.LONG, true), SortField.FIELD_DOC);
+
+	@FunctionalInterface
+	private interface Search {
+		long run() throws IOException;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("gitblog-bench");
+		try (Directory unsorted = createIndex(dir.resolve("unsorted"), null);
+				Directory sorted = createIndex(dir.resolve("sorted"), NEWEST_FIRST);
+				DirectoryReader unsortedReader = DirectoryReader.open(unsorted);
+				DirectoryReader sortedReader = DirectoryReader.open(sorted)) {
+			IndexSearcher before = new IndexSearcher(unsortedReader);
+			before.setQueryCache(null);
+			IndexSearcher after = new IndexSearcher(sortedReader);
+			after.setQueryCache(null);
+
+			String[] names = { "year range", "tag", "all posts" };
+			Query[] queries = {
+					LongPoint.newRangeQuery("published", 1577836800L, 1609459199L),
+					new TermQuery(new Term("tags", "tag7")), MatchAllDocsQuery.INSTANCE };
+
+			for (int i = 0; i < queries.length; i++) {
+				Query query = queries[i];
+				double beforeMicros = measure(() -> before.search(query,
+						new TopFieldCollectorManager(NEWEST_FIRST_BY_DOC, PAGE_SIZE + 1,
+								null, Integer.MAX_VALUE)).totalHits.value());
+				double afterMicros = measure(() -> {
+					TopFieldDocs topDocs = after.search(query, new TopFieldCollectorManager(
+							NEWEST_FIRST, PAGE_SIZE + 1, null, PAGE_SIZE + 1));
+					if (topDocs.totalHits.relation() == TotalHits.Relation.EQUAL_TO) {
+						return topDocs.totalHits.value();
+					}
+					return after.count(query);
+				});
+				System.out.printf("%-12s before %8.1f us   after %8.1f us%n", names[i],
+						beforeMicros, afterMicros);
+			}
+		}
+	}
+
+	/**
+	 * @return the average latency in microseconds
+	 */
+	private static double measure(Search search) throws IOException {
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			search.run();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			search.run();
+		}
+		return (System.nanoTime() - start) / 1000.0 / RUNS;
+	}
+
+	private static Directory createIndex(Path path, Sort indexSort) throws IOException {
+		Directory directory = new MMapDirectory(path);
+		IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+		if (indexSort != null) {
+			config.setIndexSort(indexSort);
+		}
+
+		// the same corpus for both indexes
+		Random random = new Random(42);
+		long start = 1262304000L;
+		long span = 15L * 365 * 24 * 60 * 60;
+		try (IndexWriter writer = new IndexWriter(directory, config)) {
+			for (int i = 0; i < POSTS; i++) {
+				long published = start + (long) (random.nextDouble() * span);
+				Document doc = new Document();
+				doc.add(new LongPoint("published", published));
+				doc.add(new NumericDocValuesField("publishedts", published));
+				doc.add(new StringField("url", "post" + i + ".html", Field.Store.YES));
+				doc.add(new StringField("tags", "tag" + random.nextInt(50),
+						Field.Store.YES));
+				doc.add(new TextField("body", "lorem ipsum " + random.nextInt(1000)
+						+ " dolor " + random.nextInt(1000), Field.Store.NO));
+				writer.addDocument(doc);
+				// one segment per commit
+				if (i % (POSTS / 10) == POSTS / 10 - 1) {
+					writer.commit();
+				}
+			}
+		}
+		return directory;
+	}
+
+}
@@ -0,0 +1,127 @@
+package ch.rasc.gitblog.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ch.rasc.gitblog.AppProperties;
+import ch.rasc.gitblog.AppProperties.LuceneMetadataSource;
+import ch.rasc.gitblog.component.LuceneService;
+import ch.rasc.gitblog.dto.PostContent;
+import ch.rasc.gitblog.dto.PostMetadata;
+import ch.rasc.gitblog.dto.RenderedMarkdown;
+
+/**
+ * Compares the two sources of the listing metadata, doc values and stored fields. The
+ * index is written by LuceneService, so the documents have the real field layout,
+ * including the stored body. Each source is measured with its own LuceneService on
+ * the same index: the first page of 20 of all posts and of a tag, and all posts, the
+ * query behind the suggester and the catalog.
+ *
+ * Not a test, run the main method with the test classpath. The optional argument is
+ * the number of posts, 2000 by default.
+ */
+public class MetadataSourceBenchmark {
+
+	private static final int PAGE_SIZE = 20;
+
+	private static final int WARMUP_RUNS = 1000;
+
+	private static final int RUNS = 3000;
+
+	@FunctionalInterface
+	private interface Search {
+		int run();
+	}
+
+	public static void main(String[] args) throws IOException {
+		int posts = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		Path dir = Files.createTempDirectory("gitblog-bench");
+
+		LuceneService writer = new LuceneService(
+				properties(dir, LuceneMetadataSource.DOC_VALUES));
+		writer.rebuild(createPosts(posts));
+		writer.destroy();
+
+		for (LuceneMetadataSource source : LuceneMetadataSource.values()) {
+			LuceneService luceneService = new LuceneService(properties(dir, source));
+			try {
+				double page = measure(RUNS, () -> luceneService
+						.getPostsBetween(null, null, null, PAGE_SIZE).getPosts().size());
+				double tag = measure(RUNS, () -> luceneService
+						.searchWithTag("tag7", null, PAGE_SIZE).getPosts().size());
+				double all = measure(Math.max(10, RUNS * 100 / posts),
+						() -> luceneService.getAll().size());
+				System.out.printf(
+						"%-13s first page %8.1f us   tag %8.1f us   all %10.1f us%n", source,
+						page, tag, all);
+			}
+			finally {
+				luceneService.destroy();
+			}
+		}
+	}
+
+	private static AppProperties properties(Path dir, LuceneMetadataSource source) {
+		AppProperties appProperties = new AppProperties();
+		appProperties.setLuceneDir(dir.toString());
+		appProperties.setLuceneMetadataSource(source);
+		return appProperties;
+	}
+
+	/**
+	 * @return the average latency in microseconds
+	 */
+	private static double measure(int runs, Search search) {
+		for (int i = 0; i < Math.min(runs, WARMUP_RUNS); i++) {
+			search.run();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < runs; i++) {
+			search.run();
+		}
+		return (System.nanoTime() - start) / 1000.0 / runs;
+	}
+
+	/**
+	 * Posts over 15 years with 1 to 4 of 50 tags and a body of 2000 to 8000 characters
+	 */
+	private static List<PostContent> createPosts(int count) {
+		Random random = new Random(42);
+		long start = 1262304000L;
+		long span = 15L * 365 * 24 * 60 * 60;
+		List<PostContent> posts = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			ZonedDateTime published = Instant
+					.ofEpochSecond(start + (long) (random.nextDouble() * span))
+					.atZone(ZoneOffset.UTC);
+			List<String> tags = new ArrayList<>();
+			for (int t = random.nextInt(4); t >= 0; t--) {
+				tags.add("tag" + random.nextInt(50));
+			}
+			StringBuilder body = new StringBuilder();
+			int length = 2000 + random.nextInt(6000);
+			while (body.length() < length) {
+				body.append("word").append(random.nextInt(5000)).append(' ');
+			}
+
+			String url = published.getYear() + "/post" + i + ".html";
+			PostMetadata metadata = new PostMetadata(url,
+					Paths.get(published.getYear() + "/post" + i + ".md"),
+					"Title of post " + i, "Summary of post " + i, tags, published,
+					random.nextInt(4) == 0 ? published.plusDays(30) : null);
+			String text = body.toString();
+			posts.add(new PostContent(metadata, text,
+					new RenderedMarkdown(text, "", List.of(), List.of(), () -> text)));
+		}
+		return posts;
+	}
+
+}